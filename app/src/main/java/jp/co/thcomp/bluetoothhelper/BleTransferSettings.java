@@ -7,6 +7,8 @@ public class BleTransferSettings {
 
     private BluetoothDevice mTargetDevice;
     private int mMtu = DefaultMTU;
+    private int mProtocolVersion = BleDataProvider.ProtocolVersion1;
+    private final BleMessageIdAllocator mMessageIdAllocator = new BleMessageIdAllocator();
 
     public BleTransferSettings(BluetoothDevice targetDevice) {
         mTargetDevice = targetDevice;
@@ -23,4 +25,28 @@ public class BleTransferSettings {
     public int getMTU() {
         return mMtu;
     }
+
+    /**
+     * 相手側のバージョンは自動ではやり取りしないので、アプリケーションが取得したバージョンを設定する
+     * (未設定の場合はバージョン1で送信、受信側は設定パケットのバージョンで判別するのでどちらでも受信可能)
+     *
+     * @param peerProtocolVersion 相手側がサポートしている最新のプロトコルバージョン
+     */
+    public void setPeerProtocolVersion(int peerProtocolVersion) {
+        mProtocolVersion = BleDataProvider.negotiateProtocolVersion(peerProtocolVersion);
+    }
+
+    /**
+     * @return 相手側との送信に使用するプロトコルバージョン
+     */
+    public int getProtocolVersion() {
+        return mProtocolVersion;
+    }
+
+    /**
+     * @return このデバイスへの送信用のメッセージID払い出し(他のデバイスとはID空間を共有しない)
+     */
+    public BleMessageIdAllocator getMessageIdAllocator() {
+        return mMessageIdAllocator;
+    }
 }
@@ -21,16 +21,24 @@ import android.support.v4.content.LocalBroadcastManager;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import jp.co.thcomp.activity.HandleResultActivity;
 import jp.co.thcomp.util.LogUtil;
@@ -72,6 +80,15 @@ public class BluetoothAccessHelper {
     public static final int SendFailByOutputError = -3;
     public static final int SendFailByUnknownError = -4;
 
+    public static final int DefaultMaxSendWriterCount = 4;
+    public static final int DefaultCoalescingFlushSize = 8 * 1024;
+    public static final long DefaultCoalescingFlushDelayMS = 5;
+    public static final int DefaultMaxSendQueueCount = 1024;
+    public static final long DefaultMaxSendQueueSize = 4 * 1024 * 1024;
+    public static final long DefaultSendQueueHighWatermark = 2 * 1024 * 1024;
+    public static final long DefaultSendQueueLowWatermark = 512 * 1024;
+    public static final long WaitInfinite = -1;
+
     private static BluetoothAdapter sAdapter;
     private static final ArrayList<BluetoothAccessHelper> sAccessHelperList = new ArrayList<BluetoothAccessHelper>();
     private static boolean sEnableAutoStartBluetooth = false;
@@ -86,8 +103,7 @@ public class BluetoothAccessHelper {
     private static final String DiscoverableOwnDevice = "DiscoverableOwnDevice";
     private static final int DiscoverableOwnDeviceInt = DiscoverableOwnDevice.hashCode() & 0x0000FFFF;
     private static final int StopDiscover = "StopDiscover".hashCode();
-    private static final int MaxConnectionRetryCount = 3;
-    private static final int ConnectionRetryIntervalMS = 1000;
+    private static final int MaxSendCountPerLaneTurn = 16;
 
     public interface OnBluetoothStatusListener {
         void onStatusChange(int status, int scanMode);
@@ -101,6 +117,54 @@ public class BluetoothAccessHelper {
         void onSendDataResult(int result, BluetoothDevice device, byte[] data, int offset, int length);
     }
 
+    public interface OnNotifyResultsListener {
+        /**
+         * 前回の呼び出し以降に完了した送信の結果を完了順にまとめて通知
+         */
+        void onSendDataResults(List<SendDataResult> results);
+    }
+
+    public static class SendDataResult {
+        public final int result;
+        public final BluetoothDevice device;
+        public final byte[] data;
+        public final int offset;
+        public final int length;
+
+        SendDataResult(int result, BluetoothDevice device, byte[] data, int offset, int length) {
+            this.result = result;
+            this.device = device;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    public interface OnSendWritabilityChangeListener {
+        /**
+         * @param writable falseの場合は送信待ちデータがハイウォーターマークを超えたので、trueになるまで送信を控えること
+         */
+        void onSendWritabilityChange(BluetoothDevice device, UUID uuid, boolean writable);
+    }
+
+    public interface OnReceiveBufferOverflowListener {
+        /**
+         * readLineで読み過ぎたデータを保持するサイズが上限を超えた(readLineはnullを返す)
+         * readLineを呼び出したスレッドから、readLineが戻る前に呼び出す
+         *
+         * @param discarded trueの場合は接続毎の上限を超えたため保持していたデータを破棄した、
+         *                  falseの場合は全接続の合計が上限を超えた(データは保持しているので、他の接続の読み込みが進めば続きから読み込める)
+         */
+        void onReceiveBufferOverflow(BluetoothDevice device, UUID uuid, boolean discarded);
+    }
+
+    interface OnConnectionEstablishedListener {
+        /**
+         * 接続を確立したスレッド(acceptまたはconnect)から呼び出されるので、ブロックしないこと
+         */
+        void onConnectionEstablished(BluetoothDevice device, UUID uuid, BluetoothSocket socket);
+    }
+
     public static boolean isEnableDebug() {
         return sDebug;
     }
@@ -109,6 +173,19 @@ public class BluetoothAccessHelper {
         sDebug = enableDebug;
     }
 
+    /**
+     * readLine等で読み過ぎたデータを保持するサイズの上限
+     * 接続毎の上限を超えてもdelimiterが見つからない場合、全接続の合計が上限を超える場合は、readLineがnullを返し
+     * OnReceiveBufferOverflowListenerに通知する
+     *
+     * @param maxStoredSize      接続毎の上限
+     * @param maxTotalStoredSize 全接続の合計の上限
+     */
+    public static void setReceiveBufferLimit(int maxStoredSize, long maxTotalStoredSize) {
+        BufferedByteReader.setMaxStoredByteBufferSize(maxStoredSize);
+        BufferedByteReader.setMaxTotalStoredByteBufferSize(maxTotalStoredSize);
+    }
+
     private static void addBluetoothAccessHelper(BluetoothAccessHelper accessHelper) {
         if (accessHelper != null) {
             Context context = accessHelper.mContext;
@@ -180,10 +257,7 @@ public class BluetoothAccessHelper {
                                 switch (device.getBondState()) {
                                     case BluetoothDevice.BOND_BONDED:
                                         // put it to sender queue
-                                        synchronized (accessHelper.mSendDataQueue) {
-                                            accessHelper.mSendDataQueue.add(databox);
-                                            accessHelper.mSendDataQueue.notify();
-                                        }
+                                        accessHelper.getSendLane(databox).add(databox);
                                         break;
                                     default:
                                         // give up to send data and notify error
@@ -206,14 +280,31 @@ public class BluetoothAccessHelper {
     private Handler mNotifyHandler;
     private OnBluetoothStatusListener mStatusListener;
     private OnNotifyResultListener mNotifyResultListener;
+    private Executor mNotifyResultExecutor;
+    private OnNotifyResultsListener mNotifyResultsListener;
+    private Executor mNotifyResultsExecutor;
+    private final ArrayList<SendDataResult> mPendingSendDataResultList = new ArrayList<SendDataResult>();
+    private boolean mSendDataResultsNotifyScheduled = false;
     private OnServerStatusChangeListener mServerStatusChangeListener;
+    private OnSendWritabilityChangeListener mSendWritabilityChangeListener;
+    private OnReceiveBufferOverflowListener mReceiveBufferOverflowListener;
     private OnFoundLeDeviceListener mFoundLeDeviceListener;
     private BluetoothServerSocket mServerSocket = null;
-    private final ConcurrentLinkedQueue mSendDataQueue = new ConcurrentLinkedQueue();
+    private final ConcurrentHashMap<ConnectionKey, SendLane> mSendLaneMap = new ConcurrentHashMap<ConnectionKey, SendLane>();
+    private final SendWriterExecutor mSendWriterExecutor = new SendWriterExecutor(DefaultMaxSendWriterCount);
+    private final ConnectionManager mConnectionManager = new ConnectionManager(this);
     private final HashMap<BluetoothDevice, DataBox> mBondingDeviceMap = new HashMap<>();
-    private boolean mStartHelper = false;
-    private Thread mSendDataThread;
-    private final HashMap<BluetoothDevice, HashMap<UUID, BluetoothSocket>> mConnectedSocketMap = new HashMap<>();
+    private volatile boolean mStartHelper = false;
+    private final ConcurrentHashMap<ConnectionKey, BluetoothSocket> mConnectedSocketMap = new ConcurrentHashMap<ConnectionKey, BluetoothSocket>();
+    private final CopyOnWriteArrayList<OnConnectionEstablishedListener> mConnectionEstablishedListenerList = new CopyOnWriteArrayList<OnConnectionEstablishedListener>();
+    private int mFrameHeaderType = LengthPrefixedFrame.HeaderTypeVarint;
+    private int mMaxFrameSize = LengthPrefixedFrame.DefaultMaxFrameSize;
+    private volatile int mCoalescingFlushSize = 0;
+    private volatile long mCoalescingFlushDelayMS = 0;
+    private volatile int mMaxSendQueueCount = DefaultMaxSendQueueCount;
+    private volatile long mMaxSendQueueSize = DefaultMaxSendQueueSize;
+    private volatile long mSendQueueHighWatermark = DefaultSendQueueHighWatermark;
+    private volatile long mSendQueueLowWatermark = DefaultSendQueueLowWatermark;
 
     public BluetoothAccessHelper(Context context) {
         this(context, null, null);
@@ -274,13 +365,171 @@ public class BluetoothAccessHelper {
     }
 
     public void setOnNotifyResultListener(OnNotifyResultListener listener) {
+        setOnNotifyResultListener(listener, null);
+    }
+
+    /**
+     * @param executor リスナーを呼び出すExecutor、nullの場合はsetNotifyHandlerのHandler(未設定の場合はメインスレッド)
+     */
+    public void setOnNotifyResultListener(OnNotifyResultListener listener, Executor executor) {
+        mNotifyResultExecutor = executor;
         mNotifyResultListener = listener;
     }
 
+    /**
+     * 送信結果をまとめて通知するリスナー
+     * 通知を待つ間に完了した送信の結果は次の1回の呼び出しにまとめられるので、大量の送信でも通知の回数が抑えられる
+     *
+     * @param executor リスナーを呼び出すExecutor、nullの場合はsetNotifyHandlerのHandler(未設定の場合はメインスレッド)
+     */
+    public void setOnNotifyResultsListener(OnNotifyResultsListener listener, Executor executor) {
+        mNotifyResultsExecutor = executor;
+        mNotifyResultsListener = listener;
+    }
+
     public void setOnServerStatusChangeListener(OnServerStatusChangeListener listener) {
         mServerStatusChangeListener = listener;
     }
 
+    public void setOnSendWritabilityChangeListener(OnSendWritabilityChangeListener listener) {
+        mSendWritabilityChangeListener = listener;
+    }
+
+    public void setOnReceiveBufferOverflowListener(OnReceiveBufferOverflowListener listener) {
+        mReceiveBufferOverflowListener = listener;
+    }
+
+    /**
+     * デバイス・UUID毎の送信待ちデータの上限
+     * 上限に達している場合、sendDataはfalseを返す(タイムアウト指定の場合は空きができるまで待機する)
+     * 送信待ちデータがない場合は、maxSizeを超えるデータも受け付ける
+     */
+    public void setSendQueueLimit(int maxCount, long maxSize) {
+        if (maxCount <= 0 || maxSize <= 0) {
+            throw new IllegalArgumentException("maxCount <= 0 || maxSize <= 0");
+        }
+
+        mMaxSendQueueCount = maxCount;
+        mMaxSendQueueSize = maxSize;
+    }
+
+    /**
+     * 送信待ちデータがhighWatermark(バイト)以上、または件数が上限に達した時点で送信不可を通知し、
+     * lowWatermark以下、かつ件数が上限の半分以下になった時点で送信可を通知する
+     */
+    public void setSendQueueWatermark(long lowWatermark, long highWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("lowWatermark: " + lowWatermark + ", highWatermark: " + highWatermark);
+        }
+
+        mSendQueueLowWatermark = lowWatermark;
+        mSendQueueHighWatermark = highWatermark;
+    }
+
+    /**
+     * @return 送信待ちデータがハイウォーターマークを超えている場合はfalse
+     */
+    public boolean isSendWritable(BluetoothDevice device, UUID uuid) {
+        SendLane sendLane = mSendLaneMap.get(new ConnectionKey(device, uuid));
+        return sendLane == null || sendLane.isWritable();
+    }
+
+    /**
+     * sendFrame/readFrameで使用するフレームのヘッダ形式
+     *
+     * @param headerType LengthPrefixedFrame.HeaderTypeVarint or LengthPrefixedFrame.HeaderTypeFixed
+     */
+    public void setFrameHeaderType(int headerType) {
+        if (headerType != LengthPrefixedFrame.HeaderTypeVarint && headerType != LengthPrefixedFrame.HeaderTypeFixed) {
+            throw new IllegalArgumentException("unknown header type: " + headerType);
+        }
+
+        mFrameHeaderType = headerType;
+    }
+
+    /**
+     * readFrameで受け付けるフレームの最大サイズ
+     * これを超えるフレームを受信した場合はreadFrameがnullを返す(ストリームはフレームの途中になるので、切断すること)
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        if (maxFrameSize < 0) {
+            throw new IllegalArgumentException("maxFrameSize < 0");
+        }
+
+        mMaxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * 同時に送信処理を行うデバイス・UUIDの最大数
+     * 送信はデバイス・UUID毎のレーンで順に行われ、異なるレーンはこの数まで並列に送信される
+     */
+    public void setMaxSendWriterCount(int writerCount) {
+        if (writerCount <= 0) {
+            throw new IllegalArgumentException("writerCount <= 0");
+        }
+
+        mSendWriterExecutor.setWriterCount(writerCount);
+    }
+
+    public void enableWriteCoalescing(boolean enable) {
+        if (enable) {
+            setWriteCoalescing(DefaultCoalescingFlushSize, DefaultCoalescingFlushDelayMS);
+        } else {
+            setWriteCoalescing(0, 0);
+        }
+    }
+
+    /**
+     * 同じデバイス・UUIDへの送信待ちデータをまとめて1回で書き込む
+     * まとめ始めてからflushDelayMSの間は後続の送信データを待ち、flushSizeに達する時点またはflushDelayMS経過した時点で書き込む
+     * flushSize以上のデータはまとめずにそのまま書き込む
+     *
+     * @param flushSize    0の場合はまとめずにデータ毎に書き込む
+     * @param flushDelayMS 0の場合は待機せず、送信待ちデータがなくなった時点で書き込む(待機中はライタを占有する)
+     */
+    public void setWriteCoalescing(int flushSize, long flushDelayMS) {
+        if (flushSize < 0 || flushDelayMS < 0) {
+            throw new IllegalArgumentException("flushSize < 0 || flushDelayMS < 0");
+        }
+
+        mCoalescingFlushDelayMS = flushDelayMS;
+        mCoalescingFlushSize = flushSize;
+    }
+
+    /**
+     * 接続に失敗した場合の再試行回数と間隔(初回の接続を含めて最大maxRetryCount + 1回接続を試みる)
+     */
+    public void setConnectionRetry(int maxRetryCount, ExponentialBackoff backoff) {
+        mConnectionManager.setRetry(maxRetryCount, backoff);
+    }
+
+    /**
+     * 再試行を使い切って接続に失敗したデバイスへは、failureCacheTimeMSの間は接続を試みずに送信失敗(SendFailByConnectError)とする
+     *
+     * @param failureCacheTimeMS 0の場合は毎回接続を試みる
+     */
+    public void setConnectionFailureCacheTime(long failureCacheTimeMS) {
+        mConnectionManager.setFailureCacheTime(failureCacheTimeMS);
+    }
+
+    public int getMaxSendWriterCount() {
+        return mSendWriterExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return 送信ライタが送信処理を行っていた時間の合計
+     */
+    public long getSendWriterBusyTimeMS() {
+        return mSendWriterExecutor.getBusyTimeMS();
+    }
+
+    /**
+     * @return 送信ライタが送信データを待機していた時間の合計
+     */
+    public long getSendWriterIdleTimeMS() {
+        return mSendWriterExecutor.getIdleTimeMS();
+    }
+
     public void enableAutoStartBluetooth(boolean enable) {
         if (sEnableAutoStartBluetooth != enable) {
             sEnableAutoStartBluetooth = enable;
@@ -310,6 +559,12 @@ public class BluetoothAccessHelper {
                 LocalBroadcastManager.getInstance(mContext).registerReceiver(mLocalBroadcastReceiver, new IntentFilter(LaunchBluetooth));
                 LocalBroadcastManager.getInstance(mContext).registerReceiver(mLocalBroadcastReceiver, new IntentFilter(DiscoverableOwnDevice));
 
+                // 送信ライタを常駐させ、停止中に送信できなかったデータを再開
+                mSendWriterExecutor.startWriters();
+                for (SendLane sendLane : mSendLaneMap.values()) {
+                    sendLane.schedule();
+                }
+
                 if (sAdapter.isEnabled()) {
                     addBluetoothAccessHelper(this);
                     if (mStatusListener != null) {
@@ -339,6 +594,12 @@ public class BluetoothAccessHelper {
             mStartHelper = false;
             LocalBroadcastManager.getInstance(mContext).unregisterReceiver(mLocalBroadcastReceiver);
             removeBluetoothAccessHelper(this);
+            mSendWriterExecutor.stopWriters();
+
+            // 空き待ちの送信要求を終了させる
+            for (SendLane sendLane : mSendLaneMap.values()) {
+                sendLane.wakeUpWaitingSenders();
+            }
 
             disconnectAll();
         }
@@ -481,86 +742,96 @@ public class BluetoothAccessHelper {
         return true;
     }
 
+    /**
+     * 接続が完了(再試行を含む)するまで待機
+     */
     public boolean connect(BluetoothDevice device, UUID targetUuid) {
         boolean ret = false;
-        DataBox dataBox = new DataBox(targetUuid, device, new byte[0], 0, 0);
-        BluetoothSocket clientSocket = getClientSocket(dataBox);
-        return clientSocket != null;
-    }
-
-    public boolean isConnected(BluetoothDevice device, UUID targetUuid) {
-        boolean ret = false;
-        HashMap<UUID, BluetoothSocket> connectedSocketMap = null;
-
-        synchronized (mConnectedSocketMap) {
-            connectedSocketMap = mConnectedSocketMap.get(device);
-        }
 
-        if (connectedSocketMap != null) {
-            synchronized (connectedSocketMap) {
-                ret = (connectedSocketMap.get(targetUuid) != null);
+        if (device != null && targetUuid != null) {
+            try {
+                ret = mConnectionManager.connect(device, targetUuid) != null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
 
         return ret;
     }
 
-    public boolean disconnect(BluetoothDevice device, UUID targetUuid) {
-        boolean ret = false;
-        HashMap<UUID, BluetoothSocket> connectedSocketMap = null;
+    public boolean isConnected(BluetoothDevice device, UUID targetUuid) {
+        return device != null && targetUuid != null && mConnectedSocketMap.containsKey(new ConnectionKey(device, targetUuid));
+    }
 
-        synchronized (mConnectedSocketMap) {
-            connectedSocketMap = mConnectedSocketMap.get(device);
-        }
+    public boolean disconnect(BluetoothDevice device, UUID targetUuid) {
+        return disconnect(device, targetUuid, null);
+    }
 
-        if (connectedSocketMap != null) {
-            synchronized (connectedSocketMap) {
-                BluetoothSocket connectedSocket = connectedSocketMap.remove(targetUuid);
-                if (connectedSocket != null) {
-                    try {
-                        BufferedByteReader.releaseStoredByteBuffer(connectedSocket.getInputStream());
-                    } catch (IOException e) {
-                    }
+    /**
+     * @param targetSocket 接続中のソケットがこれと一致する場合のみ切断(nullの場合は一致に関わらず切断)
+     * @return 切断した場合はtrue
+     */
+    boolean disconnect(BluetoothDevice device, UUID targetUuid, BluetoothSocket targetSocket) {
+        BluetoothSocket connectedSocket = null;
 
-                    try {
-                        connectedSocket.close();
-                    } catch (Exception e) {
-                    } finally {
-                        notifyServerStatusChange(ServerStatusDisconnectConnection, device, targetUuid);
-                    }
-                }
+        if (device != null && targetUuid != null) {
+            ConnectionKey key = new ConnectionKey(device, targetUuid);
 
-                ret = true;
+            if (targetSocket == null) {
+                connectedSocket = mConnectedSocketMap.remove(key);
+            } else if (mConnectedSocketMap.remove(key, targetSocket)) {
+                connectedSocket = targetSocket;
             }
         }
 
-        return ret;
+        if (connectedSocket != null) {
+            closeConnectedSocket(device, targetUuid, connectedSocket);
+        }
+
+        return connectedSocket != null;
     }
 
-    public void disconnectAll() {
-        synchronized (mConnectedSocketMap) {
-            for (Map.Entry<BluetoothDevice, HashMap<UUID, BluetoothSocket>> entry : mConnectedSocketMap.entrySet()) {
-                BluetoothDevice targetDevice = entry.getKey();
-                HashMap<UUID, BluetoothSocket> socketMap = entry.getValue();
+    void addOnConnectionEstablishedListener(OnConnectionEstablishedListener listener) {
+        mConnectionEstablishedListenerList.addIfAbsent(listener);
+    }
 
-                for (Map.Entry<UUID, BluetoothSocket> socketEntry : socketMap.entrySet()) {
-                    UUID targetUuid = socketEntry.getKey();
-                    BluetoothSocket connectedSocket = socketEntry.getValue();
+    void removeOnConnectionEstablishedListener(OnConnectionEstablishedListener listener) {
+        mConnectionEstablishedListenerList.remove(listener);
+    }
 
-                    try {
-                        connectedSocket.close();
-                    } catch (IOException e) {
-                    } finally {
-                        notifyServerStatusChange(ServerStatusDisconnectConnection, targetDevice, targetUuid);
-                    }
-                }
+    /**
+     * @return 接続済みのソケット、未接続の場合はnull
+     */
+    BluetoothSocket getConnectedSocket(BluetoothDevice device, UUID uuid) {
+        return getServerSocket(device, uuid);
+    }
+
+    public void disconnectAll() {
+        for (Map.Entry<ConnectionKey, BluetoothSocket> entry : mConnectedSocketMap.entrySet()) {
+            BluetoothSocket connectedSocket = entry.getValue();
+
+            if (mConnectedSocketMap.remove(entry.getKey(), connectedSocket)) {
+                closeConnectedSocket(connectedSocket.getRemoteDevice(), entry.getKey().mUuid, connectedSocket);
             }
-            mConnectedSocketMap.clear();
         }
 
         BufferedByteReader.releaseAllStoredByteBuffer();
     }
 
+    private void closeConnectedSocket(BluetoothDevice device, UUID uuid, BluetoothSocket connectedSocket) {
+        try {
+            BufferedByteReader.releaseStoredByteBuffer(connectedSocket.getInputStream());
+        } catch (IOException e) {
+        }
+
+        try {
+            connectedSocket.close();
+        } catch (Exception e) {
+        } finally {
+            notifyServerStatusChange(ServerStatusDisconnectConnection, device, uuid);
+        }
+    }
+
     public boolean sendData(String uuidText, BluetoothDevice device, byte[] data) {
         return sendData(UUID.fromString(uuidText), device, data, 0, data.length);
     }
@@ -573,30 +844,104 @@ public class BluetoothAccessHelper {
         return sendData(UUID.fromString(uuidText), device, data, offset, length);
     }
 
+    /**
+     * 送信待ちデータが上限に達している場合は待機せずにfalseを返す
+     */
     public boolean sendData(UUID uuid, BluetoothDevice device, byte[] data, int offset, int length) {
         boolean ret = false;
 
-        if (mStartHelper && device != null && data != null) {
-            synchronized (mSendDataQueue) {
-                DataBox dataBox = new DataBox(uuid, device, data, offset, length);
-                if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
-                    if (BluetoothAccessHelper.isEnableDebug()) {
-                        LogUtil.d(TAG, "request send data: " + dataBox);
-                    }
-                    mSendDataQueue.add(dataBox);
-                    mSendDataQueue.notify();
+        if (device != null && data != null) {
+            ret = offerDataBox(new DataBox(uuid, device, null, data, offset, length));
+        }
 
-                    if (mSendDataThread == null) {
-                        mSendDataThread = new Thread(mClientRunnable);
-                        mSendDataThread.start();
-                    }
-                } else {
-                    // create bound and wait for the result
+        return ret;
+    }
+
+    /**
+     * 送信待ちデータが上限に達している場合は空きができるまで最大timeoutMS待機
+     *
+     * @param timeoutMS WaitInfiniteの場合は無期限に待機
+     * @return 送信待ちに追加できなかった場合(タイムアウト、ヘルパの停止)はfalse
+     */
+    public boolean sendData(UUID uuid, BluetoothDevice device, byte[] data, int offset, int length, long timeoutMS) throws InterruptedException {
+        boolean ret = false;
+
+        if (device != null && data != null) {
+            ret = sendData(new DataBox(uuid, device, null, data, offset, length), timeoutMS);
+        }
+
+        return ret;
+    }
+
+    public boolean sendFrame(String uuidText, BluetoothDevice device, byte[] data) {
+        return sendFrame(UUID.fromString(uuidText), device, data, 0, data.length);
+    }
+
+    public boolean sendFrame(UUID uuid, BluetoothDevice device, byte[] data) {
+        return sendFrame(uuid, device, data, 0, data.length);
+    }
+
+    public boolean sendFrame(String uuidText, BluetoothDevice device, byte[] data, int offset, int length) {
+        return sendFrame(UUID.fromString(uuidText), device, data, offset, length);
+    }
+
+    /**
+     * ペイロード長のヘッダを付加して送信、受信側はreadFrameで1フレームずつ読み込める
+     */
+    public boolean sendFrame(UUID uuid, BluetoothDevice device, byte[] data, int offset, int length) {
+        boolean ret = false;
+
+        if (device != null && data != null) {
+            ret = offerDataBox(new DataBox(uuid, device, LengthPrefixedFrame.createHeader(mFrameHeaderType, length), data, offset, length));
+        }
+
+        return ret;
+    }
+
+    /**
+     * @param timeoutMS sendData(UUID, BluetoothDevice, byte[], int, int, long)と同じ
+     */
+    public boolean sendFrame(UUID uuid, BluetoothDevice device, byte[] data, int offset, int length, long timeoutMS) throws InterruptedException {
+        boolean ret = false;
+
+        if (device != null && data != null) {
+            ret = sendData(new DataBox(uuid, device, LengthPrefixedFrame.createHeader(mFrameHeaderType, length), data, offset, length), timeoutMS);
+        }
+
+        return ret;
+    }
+
+    private boolean offerDataBox(DataBox dataBox) {
+        boolean ret = false;
+
+        try {
+            ret = sendData(dataBox, 0);
+        } catch (InterruptedException e) {
+            // 待機しないので発生しない
+            Thread.currentThread().interrupt();
+        }
+
+        return ret;
+    }
+
+    private boolean sendData(DataBox dataBox, long timeoutMS) throws InterruptedException {
+        boolean ret = false;
+
+        if (mStartHelper) {
+            BluetoothDevice device = dataBox.mDevice;
+            if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
+                if (BluetoothAccessHelper.isEnableDebug()) {
+                    LogUtil.d(TAG, "request send data: " + dataBox);
+                }
+                ret = getSendLane(dataBox).offer(dataBox, timeoutMS);
+            } else {
+                // create bound and wait for the result
+                synchronized (mBondingDeviceMap) {
                     mBondingDeviceMap.put(device, dataBox);
-                    createBond(dataBox);
                 }
+                createBond(dataBox);
+                ret = true;
             }
-            ret = true;
         }
 
         return ret;
@@ -654,6 +999,12 @@ public class BluetoothAccessHelper {
 
                 try {
                     ret = reader.readLine(delimiter);
+                } catch (BufferedByteReader.StoredByteBufferOverflowException e) {
+                    LogUtil.e(TAG, "readLine: " + e.getLocalizedMessage());
+                    OnReceiveBufferOverflowListener listener = mReceiveBufferOverflowListener;
+                    if (listener != null) {
+                        listener.onReceiveBufferOverflow(device, uuid, e.isStoredDataDiscarded());
+                    }
                 } catch (IOException e) {
                     LogUtil.exception(TAG, e);
                 } finally {
@@ -669,6 +1020,44 @@ public class BluetoothAccessHelper {
         return ret;
     }
 
+    /**
+     * sendFrameで送信された長さ付きフレームを1つ読み込む
+     *
+     * @return ペイロード、接続がない場合・ストリームの終端に達した場合・フレームが不正な場合はnull
+     */
+    public byte[] readFrame(BluetoothDevice device, UUID uuid) {
+        if (BluetoothAccessHelper.isEnableDebug()) {
+            LogUtil.d(TAG, "readFrame: request receive data: " + device);
+        }
+        BluetoothSocket socket = getServerSocket(device, uuid);
+        byte[] ret = null;
+
+        if (socket != null) {
+            InputStream stream = null;
+            try {
+                stream = socket.getInputStream();
+            } catch (IOException e) {
+                LogUtil.exception(TAG, e);
+            }
+
+            if (stream != null) {
+                // readLineで読み過ぎたデータがあれば、その続きから読み込む
+                BufferedByteReader reader = new BufferedByteReader(stream);
+
+                try {
+                    ret = reader.readFrame(mFrameHeaderType, mMaxFrameSize);
+                } catch (IOException e) {
+                    LogUtil.exception(TAG, e);
+                }
+                if (BluetoothAccessHelper.isEnableDebug()) {
+                    LogUtil.d(TAG, "receive frame from " + stream);
+                }
+            }
+        }
+
+        return ret;
+    }
+
     private boolean createBond(DataBox dataBox) {
         boolean ret = false;
         if (dataBox != null) {
@@ -776,89 +1165,74 @@ public class BluetoothAccessHelper {
         mContext.startActivity(launchIntent);
     }
 
-    private BluetoothSocket getClientSocket(DataBox dataBox) {
-        BluetoothSocket clientSocket = null;
-        HashMap<UUID, BluetoothSocket> connectedSocketMap = null;
-        synchronized (mConnectedSocketMap) {
-            connectedSocketMap = mConnectedSocketMap.get(dataBox.mDevice);
-        }
-        if (connectedSocketMap != null) {
-            synchronized (connectedSocketMap) {
-                clientSocket = connectedSocketMap.get(dataBox.mTargetUUID);
-            }
-        }
+    boolean isHelperStarted() {
+        return mStartHelper;
+    }
 
-        try {
-            if (clientSocket == null || !clientSocket.isConnected()) {
-                if (clientSocket != null) {
-                    try {
-                        clientSocket.close();
-                    } catch (IOException e) {
-                    }
-                }
+    /**
+     * @return 接続済みのソケット、未接続または切断済みの場合はnull(切断済みのソケットは登録を解除)
+     */
+    BluetoothSocket getConnectedClientSocket(ConnectionKey key) {
+        BluetoothSocket ret = mConnectedSocketMap.get(key);
 
-                // create connection socket
-                int trialCount = 0;
-                Exception lastException = null;
-                while (trialCount <= MaxConnectionRetryCount) {
-                    try {
-                        clientSocket = dataBox.mDevice.createRfcommSocketToServiceRecord(dataBox.mTargetUUID);
-                        clientSocket.connect();
+        if (ret != null && !ret.isConnected()) {
+            // 他のスレッドが既に新しいソケットに置き換えている場合は残す
+            mConnectedSocketMap.remove(key, ret);
+            try {
+                ret.close();
+            } catch (IOException e) {
+            }
+            ret = null;
+        }
 
-                        if (connectedSocketMap == null) {
-                            connectedSocketMap = new HashMap<UUID, BluetoothSocket>();
-                            synchronized (mConnectedSocketMap) {
-                                mConnectedSocketMap.put(dataBox.mDevice, connectedSocketMap);
-                            }
-                        }
+        return ret;
+    }
 
-                        synchronized (connectedSocketMap) {
-                            connectedSocketMap.put(dataBox.mTargetUUID, clientSocket);
-                        }
-                        notifyServerStatusChange(ServerStatusCreateConnection, dataBox.mDevice, dataBox.mTargetUUID);
+    /**
+     * 接続したクライアントソケットを登録
+     *
+     * @return 使用するソケット、接続中に相手からの接続を受け付けていた場合はそちらのソケット
+     */
+    BluetoothSocket registerClientSocket(ConnectionKey key, BluetoothDevice device, BluetoothSocket clientSocket) {
+        BluetoothSocket ret = clientSocket;
+        BluetoothSocket registeredSocket = getConnectedClientSocket(key);
+
+        if (registeredSocket == null) {
+            registeredSocket = mConnectedSocketMap.putIfAbsent(key, clientSocket);
+        }
 
-                        if (isEnableDebug()) {
-                            LogUtil.v(TAG, "connection established");
-                        }
-                        lastException = null;
-                        break;
-                    } catch (IOException e) {
-                        lastException = e;
-                        clientSocket = null;
-                        Thread.sleep(ConnectionRetryIntervalMS);
-                        trialCount++;
-                    }
-                }
+        if (registeredSocket == null) {
+            notifyConnectionEstablished(device, key.mUuid, clientSocket);
+            notifyServerStatusChange(ServerStatusCreateConnection, device, key.mUuid);
 
-                if (lastException != null) {
-                    LogUtil.e(TAG, lastException.getLocalizedMessage());
-                }
-            } else {
-                if (isEnableDebug()) {
-                    LogUtil.v(TAG, "reuse connection");
-                }
+            if (isEnableDebug()) {
+                LogUtil.v(TAG, "connection established");
             }
-        } catch (Exception e) {
-            LogUtil.e(TAG, e.getLocalizedMessage());
+        } else {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+            }
+            ret = registeredSocket;
         }
 
-        return clientSocket;
+        return ret;
     }
 
     private BluetoothSocket getServerSocket(BluetoothDevice device, UUID uuid) {
-        BluetoothSocket serverSocket = null;
-        HashMap<UUID, BluetoothSocket> connectedSocketMap = null;
-        synchronized (mConnectedSocketMap) {
-            connectedSocketMap = mConnectedSocketMap.get(device);
-        }
+        BluetoothSocket ret = null;
 
-        if (connectedSocketMap != null) {
-            synchronized (connectedSocketMap) {
-                serverSocket = connectedSocketMap.get(uuid);
-            }
+        if (device != null && uuid != null) {
+            ret = mConnectedSocketMap.get(new ConnectionKey(device, uuid));
         }
 
-        return serverSocket;
+        return ret;
+    }
+
+    private void notifyConnectionEstablished(BluetoothDevice device, UUID uuid, BluetoothSocket socket) {
+        for (OnConnectionEstablishedListener listener : mConnectionEstablishedListenerList) {
+            listener.onConnectionEstablished(device, uuid, socket);
+        }
     }
 
     private void notifyServerStatusChange(final int serverStatus, final BluetoothDevice targetDevice, final UUID targetUuid) {
@@ -882,54 +1256,154 @@ public class BluetoothAccessHelper {
         }
     }
 
-    private void notifySendDataResult(int result, DataBox dataBox) {
-        notifySendDataResult(result, dataBox.mDevice, dataBox.mData, dataBox.mOffset, dataBox.mLength);
-    }
-
-    private void notifySendDataResult(final int result, final BluetoothDevice device, final byte[] data, final int offset, final int length) {
-        final OnNotifyResultListener fListener = mNotifyResultListener;
+    private void notifySendWritabilityChange(final BluetoothDevice device, final UUID uuid, final boolean writable) {
+        final OnSendWritabilityChangeListener fListener = mSendWritabilityChangeListener;
         if (fListener != null) {
             if (mNotifyHandler == null) {
                 ThreadUtil.runOnMainThread(mContext, new Runnable() {
                     @Override
                     public void run() {
-                        fListener.onSendDataResult(result, device, data, offset, length);
+                        fListener.onSendWritabilityChange(device, uuid, writable);
                     }
                 });
             } else {
                 mNotifyHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        fListener.onSendDataResult(result, device, data, offset, length);
+                        fListener.onSendWritabilityChange(device, uuid, writable);
                     }
                 });
             }
         }
     }
 
+    private void notifySendDataResult(int result, DataBox dataBox) {
+        notifySendDataResult(result, dataBox.mDevice, dataBox.mData, dataBox.mOffset, dataBox.mLength);
+    }
+
+    private void notifySendDataResult(final int result, final BluetoothDevice device, final byte[] data, final int offset, final int length) {
+        final OnNotifyResultListener fListener = mNotifyResultListener;
+        if (fListener != null) {
+            runOnNotifyThread(mNotifyResultExecutor, new Runnable() {
+                @Override
+                public void run() {
+                    fListener.onSendDataResult(result, device, data, offset, length);
+                }
+            });
+        }
+
+        if (mNotifyResultsListener != null) {
+            boolean scheduleNotify = false;
+
+            synchronized (mPendingSendDataResultList) {
+                mPendingSendDataResultList.add(new SendDataResult(result, device, data, offset, length));
+                if (!mSendDataResultsNotifyScheduled) {
+                    mSendDataResultsNotifyScheduled = true;
+                    scheduleNotify = true;
+                }
+            }
+
+            if (scheduleNotify && !runOnNotifyThread(mNotifyResultsExecutor, mNotifySendDataResultsRunnable)) {
+                // 通知できなかった結果を保持し続けず破棄し、以降の結果は改めて通知を予約する
+                int droppedCount = 0;
+
+                synchronized (mPendingSendDataResultList) {
+                    droppedCount = mPendingSendDataResultList.size();
+                    mPendingSendDataResultList.clear();
+                    mSendDataResultsNotifyScheduled = false;
+                }
+                LogUtil.e(TAG, "dropped " + droppedCount + " send data results");
+            }
+        }
+    }
+
+    /**
+     * @return 呼び出し元のexecutorに拒否された場合(シャットダウン済み等)はfalse
+     */
+    private boolean runOnNotifyThread(Executor executor, Runnable runnable) {
+        boolean ret = true;
+
+        if (executor != null) {
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                LogUtil.e(TAG, "notify executor rejected: " + e.getLocalizedMessage());
+                ret = false;
+            }
+        } else if (mNotifyHandler == null) {
+            ThreadUtil.runOnMainThread(mContext, runnable);
+        } else {
+            mNotifyHandler.post(runnable);
+        }
+
+        return ret;
+    }
+
+    private final Runnable mNotifySendDataResultsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            List<SendDataResult> results = null;
+
+            synchronized (mPendingSendDataResultList) {
+                results = new ArrayList<SendDataResult>(mPendingSendDataResultList);
+                mPendingSendDataResultList.clear();
+                mSendDataResultsNotifyScheduled = false;
+            }
+
+            OnNotifyResultsListener listener = mNotifyResultsListener;
+            if (listener != null && results.size() > 0) {
+                listener.onSendDataResults(Collections.unmodifiableList(results));
+            }
+        }
+    };
+
     private static class DataBox {
         UUID mTargetUUID;
         BluetoothDevice mDevice;
+        byte[] mHeader;
         byte[] mData;
         int mOffset = 0;
         int mLength = 0;
 
-        DataBox(UUID uuid, BluetoothDevice device, byte[] data, int offset, int length) {
+        DataBox(UUID uuid, BluetoothDevice device, byte[] header, byte[] data, int offset, int length) {
             if (uuid == null || device == null || data == null) {
                 throw new NullPointerException("uuid == " + uuid + " || device == " + device + " || data == " + data);
             }
 
             mTargetUUID = uuid;
             mDevice = device;
+            mHeader = header;
             mData = data;
             mOffset = offset;
             mLength = length;
         }
 
+        int getSize() {
+            return (mHeader != null ? mHeader.length : 0) + mLength;
+        }
+
+        /**
+         * ヘッダ・データをbufferにコピー
+         *
+         * @return コピーしたバイト数
+         */
+        int copyTo(byte[] buffer, int index) {
+            int headerLength = 0;
+
+            if (mHeader != null) {
+                headerLength = mHeader.length;
+                System.arraycopy(mHeader, 0, buffer, index, headerLength);
+            }
+            System.arraycopy(mData, mOffset, buffer, index + headerLength, mLength);
+
+            return headerLength + mLength;
+        }
+
         @Override
         public String toString() {
             return "DataBox{" +
-                    "mData=" + Arrays.toString(mData) +
+                    "mHeader=" + Arrays.toString(mHeader) +
+                    ", mData=" + Arrays.toString(mData) +
                     ", mTargetUUID=" + mTargetUUID +
                     ", mDevice=" + mDevice +
                     ", mOffset=" + mOffset +
@@ -938,51 +1412,291 @@ public class BluetoothAccessHelper {
         }
     }
 
-    private final Runnable mClientRunnable = new Runnable() {
-        @Override
-        public void run() {
-            DataBox dataBox = null;
+    private SendLane getSendLane(DataBox dataBox) {
+        ConnectionKey key = new ConnectionKey(dataBox.mDevice, dataBox.mTargetUUID);
+        SendLane ret = mSendLaneMap.get(key);
 
-            while (mStartHelper) {
-                synchronized (mSendDataQueue) {
-                    dataBox = (DataBox) mSendDataQueue.poll();
-                }
-                if (dataBox != null) {
-                    // send data
-                    BluetoothSocket clientSocket = getClientSocket(dataBox);
-
-                    if (clientSocket != null && clientSocket.isConnected()) {
-                        try {
-                            if (BluetoothAccessHelper.isEnableDebug()) {
-                                LogUtil.d(TAG, "send data: " + dataBox);
-                            }
-                            clientSocket.getOutputStream().write(dataBox.mData, dataBox.mOffset, dataBox.mLength);
-                            notifySendDataResult(SendSuccess, dataBox);
-                        } catch (IOException e) {
-                            LogUtil.e(TAG, e.getLocalizedMessage());
-                            notifySendDataResult(SendFailByOutputError, dataBox);
+        if (ret == null) {
+            SendLane newLane = new SendLane(key, dataBox.mDevice);
+            ret = mSendLaneMap.putIfAbsent(key, newLane);
+            if (ret == null) {
+                ret = newLane;
+            }
+        }
+
+        return ret;
+    }
+
+    private void sendDataBox(DataBox dataBox, BluetoothSocket clientSocket) {
+        try {
+            if (BluetoothAccessHelper.isEnableDebug()) {
+                LogUtil.d(TAG, "send data: " + dataBox);
+            }
+            OutputStream outputStream = clientSocket.getOutputStream();
+            if (dataBox.mHeader != null) {
+                outputStream.write(dataBox.mHeader);
+            }
+            outputStream.write(dataBox.mData, dataBox.mOffset, dataBox.mLength);
+            notifySendDataResult(SendSuccess, dataBox);
+        } catch (IOException e) {
+            LogUtil.e(TAG, e.getLocalizedMessage());
+            notifySendDataResult(SendFailByOutputError, dataBox);
+        }
+    }
+
+    /**
+     * デバイス・UUID毎の送信キュー
+     * 同じレーンのデータは投入順に1つのライタで送信され、接続待ち等で停滞しても他のレーンの送信は妨げない
+     * 多数のレーンがライタを待つ場合に偏らないよう、MaxSendCountPerLaneTurn件毎にライタを譲る
+     * 送信待ちデータの件数・バイト数はレーンのモニタで管理し、上限に達した送信要求はモニタで空きを待つ
+     * 未接続の場合はConnectionManagerに接続を依頼してライタを解放し、接続の完了後に再度スケジュールする
+     */
+    private class SendLane implements Runnable, ConnectionManager.OnConnectListener {
+        private final ConnectionKey mKey;
+        private final BluetoothDevice mDevice;
+        private final ConcurrentLinkedQueue<DataBox> mSendDataQueue = new ConcurrentLinkedQueue<DataBox>();
+        private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+        private final WriteCoalescer<DataBox> mCoalescer = new WriteCoalescer<DataBox>() {
+            @Override
+            protected DataBox peekSendData() {
+                return mSendDataQueue.peek();
+            }
+
+            @Override
+            protected void pollSendData() {
+                poll();
+            }
+
+            @Override
+            protected int getSize(DataBox sendData) {
+                return sendData.getSize();
+            }
+
+            @Override
+            protected int copyTo(DataBox sendData, byte[] buffer, int offset) {
+                return sendData.copyTo(buffer, offset);
+            }
+
+            @Override
+            protected boolean waitSendData(long waitTimeNS) {
+                return SendLane.this.waitSendData(waitTimeNS);
+            }
+
+            @Override
+            protected boolean isActive() {
+                return mStartHelper;
+            }
+        };
+        private int mQueuedCount = 0;
+        private long mQueuedSize = 0;
+        private boolean mWritable = true;
+        private volatile boolean mWaitingConnection = false;
+
+        SendLane(ConnectionKey key, BluetoothDevice device) {
+            mKey = key;
+            mDevice = device;
+        }
+
+        /**
+         * 上限に関係なく追加(ボンディング完了待ちだったデータ)
+         */
+        void add(DataBox dataBox) {
+            synchronized (this) {
+                enqueue(dataBox);
+            }
+            schedule();
+        }
+
+        /**
+         * @param timeoutMS 0の場合は待機しない、WaitInfiniteの場合は無期限に待機
+         */
+        boolean offer(DataBox dataBox, long timeoutMS) throws InterruptedException {
+            boolean ret = false;
+
+            synchronized (this) {
+                long deadlineMS = timeoutMS > 0 ? System.currentTimeMillis() + timeoutMS : 0;
+
+                while (mStartHelper && !hasRoom(dataBox.getSize())) {
+                    long waitTimeMS = 0;
+
+                    if (timeoutMS == 0) {
+                        break;
+                    } else if (timeoutMS > 0) {
+                        waitTimeMS = deadlineMS - System.currentTimeMillis();
+                        if (waitTimeMS <= 0) {
+                            break;
                         }
-                    } else {
-                        notifySendDataResult(SendFailByConnectError, dataBox);
                     }
-                } else {
-                    if (BluetoothAccessHelper.isEnableDebug()) {
-                        LogUtil.d(TAG, "cannot get data from queue");
+                    wait(waitTimeMS);
+                }
+
+                if (mStartHelper && hasRoom(dataBox.getSize())) {
+                    enqueue(dataBox);
+                    ret = true;
+                }
+            }
+
+            if (ret) {
+                schedule();
+            }
+
+            return ret;
+        }
+
+        synchronized boolean isWritable() {
+            return mWritable;
+        }
+
+        synchronized void wakeUpWaitingSenders() {
+            notifyAll();
+        }
+
+        private boolean hasRoom(int size) {
+            return mQueuedCount == 0 || (mQueuedCount < mMaxSendQueueCount && mQueuedSize + size <= mMaxSendQueueSize);
+        }
+
+        private void enqueue(DataBox dataBox) {
+            mSendDataQueue.add(dataBox);
+            mQueuedCount++;
+            mQueuedSize += dataBox.getSize();
+
+            if (mWritable && (mQueuedSize >= mSendQueueHighWatermark || mQueuedCount >= mMaxSendQueueCount)) {
+                mWritable = false;
+                notifySendWritabilityChange(mDevice, mKey.mUuid, false);
+            }
+
+            // 後続のデータを待ってまとめているライタを起こす
+            notifyAll();
+        }
+
+        private DataBox poll() {
+            DataBox ret = mSendDataQueue.poll();
+
+            if (ret != null) {
+                synchronized (this) {
+                    mQueuedCount--;
+                    mQueuedSize -= ret.getSize();
+
+                    if (!mWritable && mQueuedSize <= mSendQueueLowWatermark && mQueuedCount <= mMaxSendQueueCount / 2) {
+                        mWritable = true;
+                        notifySendWritabilityChange(mDevice, mKey.mUuid, true);
                     }
+                    notifyAll();
                 }
+            }
 
-                synchronized (mSendDataQueue) {
-                    if (mSendDataQueue.size() == 0) {
-                        mSendDataThread = null;
-                        if (BluetoothAccessHelper.isEnableDebug()) {
-                            LogUtil.d(TAG, "mClientRunnable is finished by no data");
+            return ret;
+        }
+
+        private void schedule() {
+            if (!mWaitingConnection && !mSendDataQueue.isEmpty() && mScheduled.compareAndSet(false, true)) {
+                mSendWriterExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataBox dataBox = null;
+
+                for (int i = 0; i < MaxSendCountPerLaneTurn && mStartHelper && (dataBox = mSendDataQueue.peek()) != null; i++) {
+                    BluetoothSocket clientSocket = getConnectedClientSocket(mKey);
+
+                    if (clientSocket != null) {
+                        int flushSize = mCoalescingFlushSize;
+
+                        poll();
+                        if (flushSize > 0 && dataBox.getSize() < flushSize) {
+                            sendCoalescedDataBox(dataBox, clientSocket, flushSize);
+                        } else {
+                            sendDataBox(dataBox, clientSocket);
                         }
+                    } else if (mConnectionManager.isRecentlyFailed(mDevice)) {
+                        // 直近に接続できなかったデバイスは、接続を待たずに失敗とする
+                        poll();
+                        notifySendDataResult(SendFailByConnectError, dataBox);
+                    } else {
+                        mWaitingConnection = true;
+                        mConnectionManager.connectAsync(mDevice, mKey.mUuid, this);
                         break;
                     }
                 }
+            } finally {
+                mScheduled.set(false);
+            }
+
+            // 送信中に追加されたデータ、またはライタを譲ったレーンの残りのデータ
+            if (mStartHelper) {
+                schedule();
+            } else if (BluetoothAccessHelper.isEnableDebug()) {
+                LogUtil.d(TAG, "send lane " + mKey + " is paused by stopped helper");
             }
         }
-    };
+
+        @Override
+        public void onConnect(BluetoothSocket socket) {
+            if (socket == null) {
+                // 接続待ちの間はライタが割り当てられないので、ここで取り出してもライタと競合しない
+                DataBox dataBox = null;
+                while ((dataBox = poll()) != null) {
+                    notifySendDataResult(SendFailByConnectError, dataBox);
+                }
+            }
+
+            mWaitingConnection = false;
+            if (mStartHelper) {
+                schedule();
+            }
+        }
+
+        /**
+         * firstDataBoxに続く送信待ちデータをflushSizeまでバッファにまとめて書き込む
+         * 送信待ちデータがない場合は、まとめ始めてからmCoalescingFlushDelayMS経過するまで後続のデータを待つ
+         * レーンのキューを取り出すのはこのレーンを実行中のライタのみなので、peekしたデータをそのまま取り出せる
+         */
+        private void sendCoalescedDataBox(DataBox firstDataBox, BluetoothSocket clientSocket, int flushSize) {
+            int bufferedSize = mCoalescer.coalesce(firstDataBox, flushSize, mCoalescingFlushDelayMS);
+            List<DataBox> coalescedDataBoxList = mCoalescer.getCoalescedDataList();
+
+            int result = SendSuccess;
+            try {
+                if (BluetoothAccessHelper.isEnableDebug()) {
+                    LogUtil.d(TAG, "send coalesced data: " + coalescedDataBoxList.size() + " data, " + bufferedSize + " bytes");
+                }
+                clientSocket.getOutputStream().write(mCoalescer.getBuffer(), 0, bufferedSize);
+            } catch (IOException e) {
+                LogUtil.e(TAG, e.getLocalizedMessage());
+                result = SendFailByOutputError;
+            }
+
+            for (DataBox dataBox : coalescedDataBoxList) {
+                notifySendDataResult(result, dataBox);
+            }
+            mCoalescer.clear();
+        }
+
+        /**
+         * 送信データが追加されるまで最大waitTimeNS待機
+         *
+         * @return 送信待ちデータがある場合はtrue
+         */
+        private boolean waitSendData(long waitTimeNS) {
+            boolean ret = false;
+
+            synchronized (this) {
+                try {
+                    if (mSendDataQueue.isEmpty() && mStartHelper) {
+                        TimeUnit.NANOSECONDS.timedWait(this, waitTimeNS);
+                    }
+                    ret = !mSendDataQueue.isEmpty();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return ret;
+        }
+    }
 
     private final Runnable mServerSocketRunnable = new Runnable() {
         @Override
@@ -1013,16 +1727,19 @@ public class BluetoothAccessHelper {
                     }
 
                     if (mStartHelper && (connectedSocket != null)) {
-                        synchronized (mConnectedSocketMap) {
-                            HashMap<UUID, BluetoothSocket> connectedSocketMap = mConnectedSocketMap.get(mServerUuid);
-                            if (connectedSocketMap == null) {
-                                connectedSocketMap = new HashMap<UUID, BluetoothSocket>();
+                        BluetoothDevice remoteDevice = connectedSocket.getRemoteDevice();
+                        BluetoothSocket replacedSocket = mConnectedSocketMap.put(new ConnectionKey(remoteDevice, mServerUuid), connectedSocket);
+
+                        if (replacedSocket != null) {
+                            // 再接続された古いソケットを閉じて、読み込み中の受信処理を終了させる
+                            try {
+                                replacedSocket.close();
+                            } catch (IOException e) {
                             }
-                            connectedSocketMap.put(mServerUuid, connectedSocket);
-                            mConnectedSocketMap.put(connectedSocket.getRemoteDevice(), connectedSocketMap);
                         }
+                        notifyConnectionEstablished(remoteDevice, mServerUuid, connectedSocket);
 
-                        notifyServerStatusChange(ServerStatusAcceptConnection, connectedSocket.getRemoteDevice(), mServerUuid);
+                        notifyServerStatusChange(ServerStatusAcceptConnection, remoteDevice, mServerUuid);
                     }
                 }
             }
@@ -4,6 +4,7 @@ import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 public class BluetoothClient {
     //public static final int ClientStatusDisableDiscoverable = BluetoothAccessHelper.StatusDisableDiscoverable;
@@ -26,9 +27,15 @@ public class BluetoothClient {
         // BluetoothClientによるラップのみ
     }
 
+    public interface OnNotifyResultsListener extends BluetoothAccessHelper.OnNotifyResultsListener {
+        // BluetoothClientによるラップのみ
+    }
+
     private Context mContext;
     private BluetoothAccessHelper mBtHelper;
     private OnDataReceiveListener mDataReceiveListener;
+    private Executor mDataReceiveExecutor;
+    private DataReceiveWorkerPool mDataReceiveWorkerPool = DataReceiveWorkerPool.getDefault();
     private DataReceiveThread mDataReceiveThread;
     private OnClientStatusChangeListener mClientStatusChangeListener;
     private boolean mStartClient = false;
@@ -50,12 +57,39 @@ public class BluetoothClient {
         mBtHelper.setOnNotifyResultListener(listener);
     }
 
+    public void setOnNotifyResultListener(OnNotifyResultListener listener, Executor executor) {
+        mBtHelper.setOnNotifyResultListener(listener, executor);
+    }
+
+    public void setOnNotifyResultsListener(OnNotifyResultsListener listener, Executor executor) {
+        mBtHelper.setOnNotifyResultsListener(listener, executor);
+    }
+
     public void setOnDataReceiveListener(OnDataReceiveListener listener) {
+        setOnDataReceiveListener(listener, null);
+    }
+
+    /**
+     * @param executor リスナーを呼び出すExecutor、nullの場合は受信ワーカから直接呼び出す
+     */
+    public void setOnDataReceiveListener(OnDataReceiveListener listener, Executor executor) {
         mDataReceiveListener = listener;
+        mDataReceiveExecutor = executor;
 
         if (mDataReceiveThread != null) {
-            mDataReceiveThread.setOnDataReceiveListener(listener);
+            mDataReceiveThread.setOnDataReceiveListener(listener, executor);
+        }
+    }
+
+    /**
+     * 受信に使用するワーカプール、未指定の場合はDataReceiveWorkerPool.getDefault()
+     * 受信開始(初回のsendData)後の変更は反映されない
+     */
+    public void setDataReceiveWorkerPool(DataReceiveWorkerPool workerPool) {
+        if (workerPool == null) {
+            throw new NullPointerException("workerPool == null");
         }
+        mDataReceiveWorkerPool = workerPool;
     }
 
     public boolean setDeviceName(String deviceName) {
@@ -81,8 +115,8 @@ public class BluetoothClient {
             mBtHelper.sendData(mTargetUuid, mTargetDevice, data);
 
             if (mDataReceiveThread == null) {
-                mDataReceiveThread = new DataReceiveThread(mBtHelper, mTargetDevice, mTargetUuid);
-                mDataReceiveThread.setOnDataReceiveListener(mDataReceiveListener);
+                mDataReceiveThread = new DataReceiveThread(mBtHelper, mTargetDevice, mTargetUuid, mDataReceiveWorkerPool);
+                mDataReceiveThread.setOnDataReceiveListener(mDataReceiveListener, mDataReceiveExecutor);
                 mDataReceiveThread.start();
             }
         }
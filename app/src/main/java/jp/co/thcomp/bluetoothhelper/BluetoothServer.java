@@ -5,6 +5,7 @@ import android.content.Context;
 
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 public class BluetoothServer {
     public static final int ServerStatusUnsupport = BluetoothAccessHelper.StatusFirstExtension + 1;
@@ -25,6 +26,8 @@ public class BluetoothServer {
     private HashMap<BluetoothDevice, DataReceiveThread> mDataReceiveThreadMap = new HashMap<BluetoothDevice, DataReceiveThread>();
     private OnServerStatusChangeListener mServerStatusChangeListener;
     private OnDataReceiveListener mDataReceiveListener;
+    private Executor mDataReceiveExecutor;
+    private DataReceiveWorkerPool mDataReceiveWorkerPool = DataReceiveWorkerPool.getDefault();
     private Integer mServerDiscoverableDuration = null;
 
     public BluetoothServer(Context context, String applicationName, UUID acceptUUID) {
@@ -59,7 +62,25 @@ public class BluetoothServer {
     }
 
     public void setOnDataReceiveListener(OnDataReceiveListener listener) {
+        setOnDataReceiveListener(listener, null);
+    }
+
+    /**
+     * @param executor リスナーを呼び出すExecutor、nullの場合は受信ワーカから直接呼び出す
+     */
+    public void setOnDataReceiveListener(OnDataReceiveListener listener, Executor executor) {
         mDataReceiveListener = listener;
+        mDataReceiveExecutor = executor;
+    }
+
+    /**
+     * 以降に接続されたデバイスの受信に使用するワーカプール、未指定の場合はDataReceiveWorkerPool.getDefault()
+     */
+    public void setDataReceiveWorkerPool(DataReceiveWorkerPool workerPool) {
+        if (workerPool == null) {
+            throw new NullPointerException("workerPool == null");
+        }
+        mDataReceiveWorkerPool = workerPool;
     }
 
     public boolean setDeviceName(String deviceName) {
@@ -86,8 +107,8 @@ public class BluetoothServer {
                         // threadを準備
                         DataReceiveThread thread = mDataReceiveThreadMap.get(targetDevice);
                         if (thread == null) {
-                            thread = new DataReceiveThread(mBtHelper, targetDevice, targetUUID);
-                            thread.setOnDataReceiveListener(mDataReceiveListener);
+                            thread = new DataReceiveThread(mBtHelper, targetDevice, targetUUID, mDataReceiveWorkerPool);
+                            thread.setOnDataReceiveListener(mDataReceiveListener, mDataReceiveExecutor);
                             mDataReceiveThreadMap.put(targetDevice, thread);
                             thread.start();
                         }
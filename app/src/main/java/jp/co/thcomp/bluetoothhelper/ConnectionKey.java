@@ -0,0 +1,50 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.UUID;
+
+/**
+ * デバイス(アドレス)・UUIDの組
+ */
+final class ConnectionKey {
+    final String mAddress;
+    final UUID mUuid;
+
+    ConnectionKey(BluetoothDevice device, UUID uuid) {
+        this(device.getAddress(), uuid);
+    }
+
+    ConnectionKey(String address, UUID uuid) {
+        if (address == null || uuid == null) {
+            throw new NullPointerException("address == " + address + " || uuid == " + uuid);
+        }
+
+        mAddress = address;
+        mUuid = uuid;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        boolean ret = false;
+
+        if (this == o) {
+            ret = true;
+        } else if (o instanceof ConnectionKey) {
+            ConnectionKey other = (ConnectionKey) o;
+            ret = mAddress.equals(other.mAddress) && mUuid.equals(other.mUuid);
+        }
+
+        return ret;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mAddress.hashCode() + mUuid.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mAddress + "/" + mUuid;
+    }
+}
@@ -0,0 +1,247 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.co.thcomp.util.LogUtil;
+
+/**
+ * RFCOMMのクライアント接続
+ * 接続は送信ライタとは別のスレッドで行い、失敗した場合はExponentialBackoffの間隔で再試行する
+ * 同じデバイス・UUIDへの接続要求は実行中の接続にまとめ、再試行を使い切ったデバイスは一定時間接続せずに失敗とする
+ */
+class ConnectionManager {
+    private static final String TAG = ConnectionManager.class.getSimpleName();
+
+    public static final int DefaultConnectThreadCount = 4;
+    public static final int DefaultMaxConnectionRetryCount = 3;
+    public static final long DefaultFailureCacheTimeMS = 5000;
+
+    interface OnConnectListener {
+        /**
+         * @param socket 接続済みのソケット、接続できなかった場合はnull
+         */
+        void onConnect(BluetoothSocket socket);
+    }
+
+    private final BluetoothAccessHelper mBtHelper;
+    private final ScheduledThreadPoolExecutor mConnectExecutor;
+    private final ConcurrentHashMap<ConnectionKey, ConnectTask> mConnectTaskMap = new ConcurrentHashMap<ConnectionKey, ConnectTask>();
+    private final ConcurrentHashMap<String, Long> mFailureExpireTimeMap = new ConcurrentHashMap<String, Long>();
+    private final Random mRandom = new Random();
+    private volatile ExponentialBackoff mBackoff = new ExponentialBackoff();
+    private volatile int mMaxRetryCount = DefaultMaxConnectionRetryCount;
+    private volatile long mFailureCacheTimeMS = DefaultFailureCacheTimeMS;
+
+    ConnectionManager(BluetoothAccessHelper btHelper) {
+        mBtHelper = btHelper;
+        mConnectExecutor = new ScheduledThreadPoolExecutor(DefaultConnectThreadCount, new ThreadFactory() {
+            private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread ret = new Thread(runnable, "RfcommConnector-" + mThreadNumber.getAndIncrement());
+                ret.setDaemon(true);
+                return ret;
+            }
+        });
+        mConnectExecutor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        mConnectExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    void setRetry(int maxRetryCount, ExponentialBackoff backoff) {
+        if (maxRetryCount < 0) {
+            throw new IllegalArgumentException("maxRetryCount < 0");
+        }
+        if (backoff == null) {
+            throw new NullPointerException("backoff == null");
+        }
+
+        mMaxRetryCount = maxRetryCount;
+        mBackoff = backoff;
+    }
+
+    /**
+     * @param failureCacheTimeMS 0の場合は失敗を記録せず、毎回接続を試みる
+     */
+    void setFailureCacheTime(long failureCacheTimeMS) {
+        if (failureCacheTimeMS < 0) {
+            throw new IllegalArgumentException("failureCacheTimeMS < 0");
+        }
+
+        mFailureCacheTimeMS = failureCacheTimeMS;
+        if (failureCacheTimeMS == 0) {
+            mFailureExpireTimeMap.clear();
+        }
+    }
+
+    /**
+     * @return 直近に接続に失敗し、再接続を控えているデバイスの場合はtrue
+     */
+    boolean isRecentlyFailed(BluetoothDevice device) {
+        boolean ret = false;
+        Long expireTimeMS = mFailureExpireTimeMap.get(device.getAddress());
+
+        if (expireTimeMS != null) {
+            if (System.currentTimeMillis() < expireTimeMS) {
+                ret = true;
+            } else {
+                mFailureExpireTimeMap.remove(device.getAddress(), expireTimeMS);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * 接続を開始し、完了時にlistenerを接続スレッドから呼び出す(既に完了している場合は呼び出し元のスレッドから呼び出す)
+     */
+    void connectAsync(BluetoothDevice device, UUID uuid, OnConnectListener listener) {
+        ConnectionKey key = new ConnectionKey(device, uuid);
+        BluetoothSocket socket = mBtHelper.getConnectedClientSocket(key);
+
+        if (socket != null) {
+            listener.onConnect(socket);
+        } else if (isRecentlyFailed(device)) {
+            listener.onConnect(null);
+        } else {
+            ConnectTask connectTask = mConnectTaskMap.get(key);
+
+            if (connectTask == null) {
+                ConnectTask newConnectTask = new ConnectTask(key, device);
+                connectTask = mConnectTaskMap.putIfAbsent(key, newConnectTask);
+                if (connectTask == null) {
+                    connectTask = newConnectTask;
+                    mConnectExecutor.execute(connectTask);
+                }
+            }
+
+            connectTask.addListener(listener);
+        }
+    }
+
+    /**
+     * 接続が完了するまで待機
+     *
+     * @return 接続済みのソケット、接続できなかった場合はnull
+     */
+    BluetoothSocket connect(BluetoothDevice device, UUID uuid) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final BluetoothSocket[] ret = new BluetoothSocket[1];
+
+        connectAsync(device, uuid, new OnConnectListener() {
+            @Override
+            public void onConnect(BluetoothSocket socket) {
+                ret[0] = socket;
+                latch.countDown();
+            }
+        });
+        latch.await();
+
+        return ret[0];
+    }
+
+    private class ConnectTask implements Runnable {
+        private final ConnectionKey mKey;
+        private final BluetoothDevice mDevice;
+        private final ArrayList<OnConnectListener> mListenerList = new ArrayList<OnConnectListener>();
+        private int mRetryCount = 0;
+        private boolean mFinished = false;
+        private BluetoothSocket mSocket;
+
+        ConnectTask(ConnectionKey key, BluetoothDevice device) {
+            mKey = key;
+            mDevice = device;
+        }
+
+        void addListener(OnConnectListener listener) {
+            boolean finished = false;
+            BluetoothSocket socket = null;
+
+            synchronized (this) {
+                if (mFinished) {
+                    finished = true;
+                    socket = mSocket;
+                } else {
+                    mListenerList.add(listener);
+                }
+            }
+
+            if (finished) {
+                listener.onConnect(socket);
+            }
+        }
+
+        @Override
+        public void run() {
+            BluetoothSocket socket = mBtHelper.getConnectedClientSocket(mKey);
+            boolean retry = false;
+
+            if (socket == null && mBtHelper.isHelperStarted()) {
+                BluetoothSocket clientSocket = null;
+
+                try {
+                    clientSocket = mDevice.createRfcommSocketToServiceRecord(mKey.mUuid);
+                    clientSocket.connect();
+                    socket = mBtHelper.registerClientSocket(mKey, mDevice, clientSocket);
+                } catch (IOException e) {
+                    if (clientSocket != null) {
+                        try {
+                            clientSocket.close();
+                        } catch (IOException closeException) {
+                        }
+                    }
+
+                    if (mRetryCount < mMaxRetryCount && mBtHelper.isHelperStarted()) {
+                        long delayMS = mBackoff.getDelayMS(mRetryCount++, mRandom);
+
+                        if (BluetoothAccessHelper.isEnableDebug()) {
+                            LogUtil.d(TAG, "retry connection to " + mKey + " after " + delayMS + "ms: " + e.getLocalizedMessage());
+                        }
+                        mConnectExecutor.schedule(this, delayMS, TimeUnit.MILLISECONDS);
+                        retry = true;
+                    } else {
+                        LogUtil.e(TAG, "connection to " + mKey + " failed: " + e.getLocalizedMessage());
+                        if (mFailureCacheTimeMS > 0) {
+                            mFailureExpireTimeMap.put(mKey.mAddress, System.currentTimeMillis() + mFailureCacheTimeMS);
+                        }
+                    }
+                }
+            }
+
+            if (!retry) {
+                if (socket != null) {
+                    mFailureExpireTimeMap.remove(mKey.mAddress);
+                }
+                finish(socket);
+            }
+        }
+
+        private void finish(BluetoothSocket socket) {
+            ArrayList<OnConnectListener> listenerList = null;
+
+            synchronized (this) {
+                mFinished = true;
+                mSocket = socket;
+                listenerList = new ArrayList<OnConnectListener>(mListenerList);
+                mListenerList.clear();
+            }
+            mConnectTaskMap.remove(mKey, this);
+
+            for (OnConnectListener listener : listenerList) {
+                listener.onConnect(socket);
+            }
+        }
+    }
+}
@@ -1,60 +1,175 @@
 package jp.co.thcomp.bluetoothhelper;
 
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import jp.co.thcomp.util.LogUtil;
+
+/**
+ * デバイス・UUIDの受信処理
+ * 接続が確立された時点でDataReceiveWorkerPoolに受信処理を投入し、接続待ちの間はスレッドを使用しない
+ * ソケットが切断された場合は、再度接続が確立されるまで待機する
+ * 受信データは読み込み毎にByteArrayPoolから貸し出すので、リスナーは保持したまま別スレッドへ渡してよい
+ * 不要になった時点でReceiveData.release()を呼び出すとバッファが再利用される
+ */
+class DataReceiveThread extends PooledReceiveTask<BluetoothSocket> implements BluetoothAccessHelper.OnConnectionEstablishedListener {
+    private static final String TAG = DataReceiveThread.class.getSimpleName();
+    private static final int DefaultReceiveBufferSize = 1024;
+    private static final int ShrinkReceiveBufferReadCount = 8;
 
-class DataReceiveThread implements Runnable {
     private BluetoothAccessHelper mBtHelper;
     private BluetoothDevice mTargetDevice;
     private UUID mTargetUuid;
     private OnDataReceiveListener mDataReceiveListener;
-    private boolean mRunThread = false;
+    private Executor mDataReceiveExecutor;
+    private ByteArrayPool mBufferPool = ByteArrayPool.getDefault();
+    private int mReceiveBufferSize = DefaultReceiveBufferSize;
+    private int mSmallReadCount = 0;
 
     public DataReceiveThread(BluetoothAccessHelper btHelper, BluetoothDevice targetDevice, UUID targetUuid) {
+        this(btHelper, targetDevice, targetUuid, DataReceiveWorkerPool.getDefault());
+    }
+
+    public DataReceiveThread(BluetoothAccessHelper btHelper, BluetoothDevice targetDevice, UUID targetUuid, DataReceiveWorkerPool workerPool) {
+        super(workerPool);
+
         mBtHelper = btHelper;
         mTargetDevice = targetDevice;
         mTargetUuid = targetUuid;
     }
 
     public void setOnDataReceiveListener(OnDataReceiveListener listener) {
-        mDataReceiveListener = listener;
+        setOnDataReceiveListener(listener, null);
     }
 
-    public boolean isRun() {
-        return mRunThread;
+    /**
+     * @param executor リスナーを呼び出すExecutor、nullの場合は受信したワーカから直接呼び出す
+     */
+    public void setOnDataReceiveListener(OnDataReceiveListener listener, Executor executor) {
+        mDataReceiveListener = listener;
+        mDataReceiveExecutor = executor;
     }
 
     public void start() {
-        if (!mRunThread) {
-            mRunThread = true;
-            new Thread(this).start();
+        if (mTargetDevice == null || mTargetUuid == null || !startTask()) {
+            return;
         }
+
+        mBtHelper.addOnConnectionEstablishedListener(this);
+
+        // 既に接続済みの場合
+        onConnected(getConnectedSocket());
     }
 
+    /**
+     * ワーカの空き待ちの場合は直ちに終了、ソケットからの読み込み中の場合はソケットを切断して終了させる
+     */
     public void stop() {
-        if (mRunThread) {
-            mRunThread = false;
+        // BluetoothSocketの読み込みは割り込みで中断できないので、切断して中断させる
+        BluetoothSocket receiveSocket = stopTask();
+
+        mBtHelper.removeOnConnectionEstablishedListener(this);
+        if (receiveSocket != null) {
+            mBtHelper.disconnect(mTargetDevice, mTargetUuid, receiveSocket);
+        }
+    }
+
+    @Override
+    public void onConnectionEstablished(BluetoothDevice device, UUID uuid, BluetoothSocket socket) {
+        if (mTargetDevice.equals(device) && mTargetUuid.equals(uuid)) {
+            onConnected(socket);
         }
     }
 
     @Override
-    public void run() {
-        if (mTargetDevice != null && mTargetUuid != null) {
-            ReceiveData receiveData = new ReceiveData();
-            receiveData.device = mTargetDevice;
-            receiveData.uuid = mTargetUuid;
-            receiveData.data = new byte[1024];
-
-            while (mRunThread) {
-                receiveData.dataSize = mBtHelper.readData(mTargetDevice, mTargetUuid, receiveData.data);
-                if (receiveData.dataSize > 0) {
-                    OnDataReceiveListener listener = mDataReceiveListener;
-
-                    if (listener != null) {
+    protected BluetoothSocket getConnectedSocket() {
+        return mBtHelper.getConnectedSocket(mTargetDevice, mTargetUuid);
+    }
+
+    @Override
+    protected void receive(BluetoothSocket socket) {
+        try {
+            // readLine等で読み過ぎたデータがあれば、そこから読み込む
+            InputStream stream = new BufferedByteReader(socket.getInputStream());
+
+            while (isRun()) {
+                ReceiveData receiveData = new ReceiveData();
+                receiveData.device = mTargetDevice;
+                receiveData.uuid = mTargetUuid;
+                receiveData.data = mBufferPool.acquire(mReceiveBufferSize);
+                receiveData.mBufferPool = mBufferPool;
+
+                try {
+                    receiveData.dataSize = stream.read(receiveData.data, 0, receiveData.data.length);
+                } catch (IOException e) {
+                    receiveData.release();
+                    throw e;
+                }
+
+                if (receiveData.dataSize < 0) {
+                    receiveData.release();
+                    break;
+                } else if (receiveData.dataSize > 0) {
+                    updateReceiveBufferSize(receiveData.dataSize, receiveData.data.length);
+                    notifyDataReceive(receiveData);
+                } else {
+                    receiveData.release();
+                }
+            }
+        } catch (IOException e) {
+            if (isRun() && BluetoothAccessHelper.isEnableDebug()) {
+                LogUtil.d(TAG, "receive finished: " + e.getLocalizedMessage());
+            }
+        } finally {
+            // 切断されたソケットが再度取得されないように、登録を解除(リスナーの例外で中断した場合も再接続で受信を再開できるように切断)
+            mBtHelper.disconnect(mTargetDevice, mTargetUuid, socket);
+        }
+    }
+
+    /**
+     * バッファを満たす読み込みが続く場合は拡大、小さい読み込みが続く場合は縮小
+     */
+    private void updateReceiveBufferSize(int readSize, int bufferSize) {
+        if (readSize >= bufferSize) {
+            mReceiveBufferSize = Math.min(bufferSize * 2, ByteArrayPool.MaxSizeClass);
+            mSmallReadCount = 0;
+        } else if (readSize <= bufferSize / 4 && bufferSize > DefaultReceiveBufferSize) {
+            if (++mSmallReadCount >= ShrinkReceiveBufferReadCount) {
+                mReceiveBufferSize = Math.max(bufferSize / 2, DefaultReceiveBufferSize);
+                mSmallReadCount = 0;
+            }
+        } else {
+            mSmallReadCount = 0;
+        }
+    }
+
+    private void notifyDataReceive(final ReceiveData receiveData) {
+        final OnDataReceiveListener listener = mDataReceiveListener;
+        Executor executor = mDataReceiveExecutor;
+
+        if (listener == null) {
+            receiveData.release();
+        } else if (executor == null) {
+            listener.onDataReceive(receiveData);
+        } else {
+            // 読み込み毎に別のバッファを貸し出すので、コピーせずにそのまま渡す
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
                         listener.onDataReceive(receiveData);
                     }
-                }
+                });
+            } catch (RejectedExecutionException e) {
+                // 通知できなかった受信データは破棄し、受信は継続する
+                LogUtil.e(TAG, "dropped " + receiveData.dataSize + " bytes from " + mTargetDevice + ", receive executor rejected: " + e.getLocalizedMessage());
+                receiveData.release();
             }
         }
     }
@@ -0,0 +1,143 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.co.thcomp.util.LogUtil;
+
+/**
+ * 接続済みのデバイス・UUIDからの受信を行うスレッドプール
+ * 未接続のデバイス・UUIDはスレッドを使用せず、接続が確立された時点で受信処理がキューに投入される
+ * 受信中のワーカは接続が切断されるまで占有されるため、ワーカは接続数に応じて上限まで増加し、アイドル状態が続くと終了する
+ * 上限を超える接続はキューで待機し(OnWorkerShortageListenerで通知)、いずれかの接続が切断されると順に受信を開始する
+ */
+public class DataReceiveWorkerPool {
+    private static final String TAG = DataReceiveWorkerPool.class.getSimpleName();
+
+    public static final int DefaultMaxWorkerCount = 64;
+    private static final long WorkerKeepAliveTimeS = 60;
+
+    public interface OnWorkerShortageListener {
+        /**
+         * ワーカが上限まで受信中のため、受信処理がキューで待機した
+         *
+         * @param queueDepth ワーカの空き待ちの接続数
+         */
+        void onWorkerShortage(DataReceiveWorkerPool workerPool, int queueDepth);
+    }
+
+    private static DataReceiveWorkerPool sDefaultPool;
+
+    public static synchronized DataReceiveWorkerPool getDefault() {
+        if (sDefaultPool == null) {
+            sDefaultPool = new DataReceiveWorkerPool();
+        }
+
+        return sDefaultPool;
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private volatile OnWorkerShortageListener mWorkerShortageListener;
+
+    public DataReceiveWorkerPool() {
+        this(DefaultMaxWorkerCount);
+    }
+
+    /**
+     * @param maxWorkerCount 同時に受信できる接続数の上限
+     */
+    public DataReceiveWorkerPool(int maxWorkerCount) {
+        if (maxWorkerCount <= 0) {
+            throw new IllegalArgumentException("maxWorkerCount <= 0");
+        }
+
+        // 上限まではcoreのワーカとして受信処理毎に生成し、allowCoreThreadTimeOutでアイドル状態のワーカを終了させる
+        mExecutor = new ThreadPoolExecutor(maxWorkerCount, maxWorkerCount, WorkerKeepAliveTimeS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread ret = new Thread(runnable, "DataReceiveWorker-" + mThreadNumber.getAndIncrement());
+                ret.setDaemon(true);
+                return ret;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public synchronized void setMaxWorkerCount(int maxWorkerCount) {
+        if (maxWorkerCount <= 0) {
+            throw new IllegalArgumentException("maxWorkerCount <= 0");
+        }
+
+        if (maxWorkerCount > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(maxWorkerCount);
+            mExecutor.setCorePoolSize(maxWorkerCount);
+        } else {
+            mExecutor.setCorePoolSize(maxWorkerCount);
+            mExecutor.setMaximumPoolSize(maxWorkerCount);
+        }
+    }
+
+    public int getMaxWorkerCount() {
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * @param listener nullの場合はログに出力する
+     */
+    public void setOnWorkerShortageListener(OnWorkerShortageListener listener) {
+        mWorkerShortageListener = listener;
+    }
+
+    /**
+     * @return 生成済みのワーカ数
+     */
+    public int getWorkerCount() {
+        return mExecutor.getPoolSize();
+    }
+
+    /**
+     * @return 受信中の接続数
+     */
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /**
+     * @return ワーカの空き待ちの接続数
+     */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    void execute(Runnable receiveTask) {
+        mExecutor.execute(receiveTask);
+
+        // 終了待ちのアイドル状態のワーカが取り出す場合は除く
+        if (mExecutor.getActiveCount() >= mExecutor.getMaximumPoolSize()) {
+            int queueDepth = getQueueDepth();
+
+            if (queueDepth > 0) {
+                OnWorkerShortageListener listener = mWorkerShortageListener;
+
+                if (listener != null) {
+                    listener.onWorkerShortage(this, queueDepth);
+                } else {
+                    LogUtil.w(TAG, "all " + mExecutor.getMaximumPoolSize() + " receive workers are busy, " + queueDepth + " connection(s) waiting");
+                }
+            }
+        }
+    }
+
+    boolean remove(Runnable receiveTask) {
+        return mExecutor.remove(receiveTask);
+    }
+}
@@ -1,5 +1,9 @@
 package jp.co.thcomp.bluetoothhelper;
 
 public interface OnDataReceiveListener {
+    /**
+     * receiveDataは呼び出し毎に異なるインスタンスなので、保持・別スレッドへの受け渡しが可能
+     * 不要になった時点でreceiveData.release()を呼び出すと、受信バッファが再利用される
+     */
     void onDataReceive(ReceiveData receiveData);
 }
@@ -0,0 +1,111 @@
+package jp.co.thcomp.bluetoothhelper;
+
+/**
+ * 接続毎の受信処理をDataReceiveWorkerPoolで実行する
+ * 接続が確立された時点でワーカに投入し、停止時にワーカの空き待ちであればキューから取り除く
+ *
+ * @param <S> 受信に使用するソケット
+ */
+abstract class PooledReceiveTask<S> implements Runnable {
+    private final DataReceiveWorkerPool mWorkerPool;
+    private volatile boolean mRunTask = false;
+    private S mReceiveSocket;
+
+    PooledReceiveTask(DataReceiveWorkerPool workerPool) {
+        if (workerPool == null) {
+            throw new NullPointerException("workerPool == null");
+        }
+
+        mWorkerPool = workerPool;
+    }
+
+    /**
+     * ソケットから切断されるか停止されるまで受信する
+     */
+    protected abstract void receive(S socket);
+
+    /**
+     * @return 接続済みのソケット、未接続の場合はnull
+     */
+    protected abstract S getConnectedSocket();
+
+    public boolean isRun() {
+        return mRunTask;
+    }
+
+    /**
+     * @return 停止状態から開始した場合はtrue
+     */
+    synchronized boolean startTask() {
+        boolean ret = false;
+
+        if (!mRunTask) {
+            mRunTask = true;
+            ret = true;
+        }
+
+        return ret;
+    }
+
+    /**
+     * ワーカの空き待ちの場合はキューから取り除く
+     *
+     * @return 受信中のソケット(切断して読み込みを中断させる必要がある)、受信中でない場合はnull
+     */
+    synchronized S stopTask() {
+        S ret = null;
+
+        if (mRunTask) {
+            mRunTask = false;
+
+            if (mReceiveSocket != null) {
+                if (mWorkerPool.remove(this)) {
+                    // 再開時に接続を受け付けられるよう、投入前の状態に戻す
+                    mReceiveSocket = null;
+                } else {
+                    ret = mReceiveSocket;
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * 開始中かつ受信中でない場合は、socketの受信をワーカに投入する
+     */
+    synchronized void onConnected(S socket) {
+        if (mRunTask && mReceiveSocket == null && socket != null) {
+            mReceiveSocket = socket;
+            mWorkerPool.execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        S socket = null;
+
+        synchronized (this) {
+            socket = mReceiveSocket;
+        }
+
+        try {
+            if (socket != null && mRunTask) {
+                receive(socket);
+            }
+        } finally {
+            // receiveが例外で終了した場合も、次の接続を受け付けられるようにする
+            synchronized (this) {
+                mReceiveSocket = null;
+            }
+        }
+
+        // 受信中に再接続されていた場合
+        if (mRunTask) {
+            S reconnectedSocket = getConnectedSocket();
+            if (reconnectedSocket != null && reconnectedSocket != socket) {
+                onConnected(reconnectedSocket);
+            }
+        }
+    }
+}
@@ -9,4 +9,27 @@ public class ReceiveData {
     public UUID uuid;
     public byte[] data;
     public int dataSize;
+
+    ByteArrayPool mBufferPool;
+
+    /**
+     * dataをプールに返却して再利用させる、以降dataは参照できない
+     * 呼び出さなかった場合はGCで回収される
+     */
+    public void release() {
+        ByteArrayPool bufferPool = null;
+        byte[] releaseData = null;
+
+        synchronized (this) {
+            bufferPool = mBufferPool;
+            releaseData = data;
+            mBufferPool = null;
+            data = null;
+            dataSize = 0;
+        }
+
+        if (bufferPool != null) {
+            bufferPool.release(releaseData);
+        }
+    }
 }
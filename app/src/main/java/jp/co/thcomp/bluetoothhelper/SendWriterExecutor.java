@@ -0,0 +1,156 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 送信レーンを実行するライタスレッド
+ * 開始中のライタは送信データがない間もキューで待機(park)し続け、送信毎のスレッド生成を行わない
+ * 停止するとアイドル状態のライタから終了する
+ */
+class SendWriterExecutor extends ThreadPoolExecutor {
+    private static final long StoppedKeepAliveTimeMS = 1;
+
+    private final ConcurrentHashMap<Thread, WorkerTime> mWorkerTimeMap = new ConcurrentHashMap<Thread, WorkerTime>();
+    private final AtomicLong mFinishedAliveTimeNS = new AtomicLong(0);
+    private final AtomicLong mFinishedBusyTimeNS = new AtomicLong(0);
+
+    SendWriterExecutor(int writerCount) {
+        super(writerCount, writerCount, StoppedKeepAliveTimeMS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        setThreadFactory(new WriterThreadFactory());
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * ライタ数分のライタを起動して常駐させる
+     */
+    synchronized void startWriters() {
+        allowCoreThreadTimeOut(false);
+        prestartAllCoreThreads();
+    }
+
+    /**
+     * アイドル状態のライタは直ちに、送信中のライタは送信の完了後に終了させる
+     */
+    synchronized void stopWriters() {
+        allowCoreThreadTimeOut(true);
+    }
+
+    synchronized void setWriterCount(int writerCount) {
+        if (writerCount <= 0) {
+            throw new IllegalArgumentException("writerCount <= 0");
+        }
+
+        if (writerCount > getMaximumPoolSize()) {
+            setMaximumPoolSize(writerCount);
+            setCorePoolSize(writerCount);
+        } else {
+            setCorePoolSize(writerCount);
+            setMaximumPoolSize(writerCount);
+        }
+
+        if (!allowsCoreThreadTimeOut()) {
+            // 開始中に増やしたライタも送信データを待たずに常駐させる
+            prestartAllCoreThreads();
+        }
+    }
+
+    /**
+     * @return ライタが送信処理を行っていた時間の合計
+     */
+    long getBusyTimeMS() {
+        long ret = mFinishedBusyTimeNS.get();
+        long now = System.nanoTime();
+
+        for (WorkerTime workerTime : mWorkerTimeMap.values()) {
+            ret += workerTime.getBusyTimeNS(now);
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(ret);
+    }
+
+    /**
+     * @return ライタが送信データを待機していた時間の合計
+     */
+    long getIdleTimeMS() {
+        long ret = mFinishedAliveTimeNS.get() - mFinishedBusyTimeNS.get();
+        long now = System.nanoTime();
+
+        for (WorkerTime workerTime : mWorkerTimeMap.values()) {
+            ret += (now - workerTime.mStartTimeNS) - workerTime.getBusyTimeNS(now);
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(ret);
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+        WorkerTime workerTime = mWorkerTimeMap.get(thread);
+
+        if (workerTime != null) {
+            workerTime.mTaskStartTimeNS = System.nanoTime();
+        }
+        super.beforeExecute(thread, runnable);
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+
+        WorkerTime workerTime = mWorkerTimeMap.get(Thread.currentThread());
+        if (workerTime != null) {
+            workerTime.finishTask(System.nanoTime());
+        }
+    }
+
+    private static class WorkerTime {
+        final long mStartTimeNS = System.nanoTime();
+        volatile long mTaskStartTimeNS = 0;
+        volatile long mBusyTimeNS = 0;
+
+        void finishTask(long now) {
+            long taskStartTimeNS = mTaskStartTimeNS;
+
+            if (taskStartTimeNS != 0) {
+                mBusyTimeNS += now - taskStartTimeNS;
+                mTaskStartTimeNS = 0;
+            }
+        }
+
+        long getBusyTimeNS(long now) {
+            long taskStartTimeNS = mTaskStartTimeNS;
+            return mBusyTimeNS + (taskStartTimeNS != 0 ? now - taskStartTimeNS : 0);
+        }
+    }
+
+    private class WriterThreadFactory implements ThreadFactory {
+        private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread ret = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    WorkerTime workerTime = new WorkerTime();
+                    mWorkerTimeMap.put(Thread.currentThread(), workerTime);
+
+                    try {
+                        runnable.run();
+                    } finally {
+                        mWorkerTimeMap.remove(Thread.currentThread());
+                        workerTime.finishTask(System.nanoTime());
+                        mFinishedBusyTimeNS.addAndGet(workerTime.mBusyTimeNS);
+                        mFinishedAliveTimeNS.addAndGet(System.nanoTime() - workerTime.mStartTimeNS);
+                    }
+                }
+            }, "SendDataWriter-" + mThreadNumber.getAndIncrement());
+            ret.setDaemon(true);
+            return ret;
+        }
+    }
+}
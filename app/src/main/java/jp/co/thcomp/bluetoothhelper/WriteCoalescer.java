@@ -0,0 +1,106 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 送信待ちデータをflushSizeまで1つのバッファにまとめる
+ * 送信待ちデータがある間はflushSizeに達するまで取り出し、なくなった場合はまとめ始めてからflushDelayMS経過するまで後続のデータを待つ
+ *
+ * @param <T> 送信データ
+ */
+abstract class WriteCoalescer<T> {
+    private final ArrayList<T> mCoalescedDataList = new ArrayList<T>();
+    private byte[] mBuffer;
+    private int mBufferedSize = 0;
+
+    /**
+     * @return 先頭の送信待ちデータ、ない場合はnull
+     */
+    protected abstract T peekSendData();
+
+    /**
+     * peekSendDataで取得したデータを取り出す
+     */
+    protected abstract void pollSendData();
+
+    protected abstract int getSize(T sendData);
+
+    /**
+     * @return コピーしたサイズ
+     */
+    protected abstract int copyTo(T sendData, byte[] buffer, int offset);
+
+    /**
+     * 送信データが追加されるまで最大waitTimeNS待機
+     *
+     * @return 送信待ちデータがある場合はtrue
+     */
+    protected abstract boolean waitSendData(long waitTimeNS);
+
+    /**
+     * @return falseの場合はまとめるのを中断する
+     */
+    protected abstract boolean isActive();
+
+    /**
+     * firstSendData(取り出し済み)に続く送信待ちデータをflushSizeまでまとめる
+     *
+     * @param flushDelayMS 0の場合は待機せず、送信待ちデータがなくなった時点で終了
+     * @return まとめたデータのサイズ
+     */
+    int coalesce(T firstSendData, int flushSize, long flushDelayMS) {
+        if (mBuffer == null || mBuffer.length != flushSize) {
+            mBuffer = new byte[flushSize];
+        }
+
+        long flushDeadlineNS = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushDelayMS);
+        mCoalescedDataList.clear();
+        mBufferedSize = copyTo(firstSendData, mBuffer, 0);
+        mCoalescedDataList.add(firstSendData);
+
+        while (isActive()) {
+            T sendData = peekSendData();
+
+            if (sendData != null) {
+                if (mBufferedSize + getSize(sendData) > flushSize) {
+                    break;
+                }
+
+                pollSendData();
+                mBufferedSize += copyTo(sendData, mBuffer, mBufferedSize);
+                mCoalescedDataList.add(sendData);
+            } else {
+                // 期限を過ぎた場合は待機しないだけで、既に届いているデータはまとめる
+                long waitTimeNS = flushDeadlineNS - System.nanoTime();
+
+                if (waitTimeNS <= 0 || !waitSendData(waitTimeNS)) {
+                    break;
+                }
+            }
+        }
+
+        return mBufferedSize;
+    }
+
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    int getBufferedSize() {
+        return mBufferedSize;
+    }
+
+    /**
+     * @return 直前のcoalesceでまとめたデータ(まとめた順)
+     */
+    List<T> getCoalescedDataList() {
+        return mCoalescedDataList;
+    }
+
+    void clear() {
+        mCoalescedDataList.clear();
+        mBufferedSize = 0;
+    }
+}
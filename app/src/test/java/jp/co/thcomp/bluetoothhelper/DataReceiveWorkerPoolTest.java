@@ -0,0 +1,90 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DataReceiveWorkerPoolTest {
+    @Test
+    public void testCase1() throws Exception {
+        // 接続を占有する受信処理が上限まで同時に実行されること
+        int connectionCount = 8;
+        DataReceiveWorkerPool workerPool = new DataReceiveWorkerPool();
+        final CountDownLatch receiveLatch = new CountDownLatch(connectionCount);
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                workerPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        receiveLatch.countDown();
+                        try {
+                            blockLatch.await();
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                });
+            }
+
+            assertTrue(receiveLatch.await(5, TimeUnit.SECONDS));
+            assertEquals(connectionCount, workerPool.getWorkerCount());
+            assertEquals(0, workerPool.getQueueDepth());
+        } finally {
+            blockLatch.countDown();
+            workerPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCase2() throws Exception {
+        // 上限を超えた受信処理は待機し、リスナーに通知されること
+        DataReceiveWorkerPool workerPool = new DataReceiveWorkerPool(1);
+        final CountDownLatch receiveLatch = new CountDownLatch(1);
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+        final LinkedBlockingQueue<Integer> queueDepthQueue = new LinkedBlockingQueue<Integer>();
+        Runnable receiveTask = new Runnable() {
+            @Override
+            public void run() {
+                receiveLatch.countDown();
+                try {
+                    blockLatch.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+
+        workerPool.setOnWorkerShortageListener(new DataReceiveWorkerPool.OnWorkerShortageListener() {
+            @Override
+            public void onWorkerShortage(DataReceiveWorkerPool workerPool, int queueDepth) {
+                queueDepthQueue.add(queueDepth);
+            }
+        });
+
+        try {
+            workerPool.execute(receiveTask);
+            assertTrue(receiveLatch.await(5, TimeUnit.SECONDS));
+            assertTrue(queueDepthQueue.isEmpty());
+
+            workerPool.execute(receiveTask);
+            assertEquals(Integer.valueOf(1), queueDepthQueue.poll());
+            assertEquals(1, workerPool.getQueueDepth());
+
+            // 上限を拡大すると待機中の受信処理が開始される
+            workerPool.setMaxWorkerCount(2);
+            long timeoutTimeMS = System.currentTimeMillis() + 5000;
+            while (workerPool.getQueueDepth() > 0 && System.currentTimeMillis() < timeoutTimeMS) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, workerPool.getQueueDepth());
+        } finally {
+            blockLatch.countDown();
+            workerPool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PooledReceiveTaskTest {
+    private static class TestReceiveTask extends PooledReceiveTask<String> {
+        final LinkedBlockingQueue<String> mReceivedSocketQueue = new LinkedBlockingQueue<String>();
+
+        TestReceiveTask(DataReceiveWorkerPool workerPool) {
+            super(workerPool);
+        }
+
+        @Override
+        protected void receive(String socket) {
+            mReceivedSocketQueue.add(socket);
+        }
+
+        @Override
+        protected String getConnectedSocket() {
+            return null;
+        }
+    }
+
+    @Test
+    public void testCase1() throws Exception {
+        // ワーカの空き待ち中に停止・再開した場合も、再開後の接続で受信すること
+        DataReceiveWorkerPool workerPool = new DataReceiveWorkerPool(1);
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+        TestReceiveTask receiveTask = new TestReceiveTask(workerPool);
+
+        workerPool.setOnWorkerShortageListener(new DataReceiveWorkerPool.OnWorkerShortageListener() {
+            @Override
+            public void onWorkerShortage(DataReceiveWorkerPool workerPool, int queueDepth) {
+            }
+        });
+
+        try {
+            workerPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blockLatch.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            });
+
+            assertTrue(receiveTask.startTask());
+            receiveTask.onConnected("socket1");
+            assertEquals(1, workerPool.getQueueDepth());
+
+            // キューから取り除かれるので、切断すべきソケットはない
+            assertNull(receiveTask.stopTask());
+            assertFalse(receiveTask.isRun());
+            assertEquals(0, workerPool.getQueueDepth());
+
+            assertTrue(receiveTask.startTask());
+            receiveTask.onConnected("socket1");
+            assertEquals(1, workerPool.getQueueDepth());
+
+            blockLatch.countDown();
+            assertEquals("socket1", receiveTask.mReceivedSocketQueue.poll(5, TimeUnit.SECONDS));
+        } finally {
+            blockLatch.countDown();
+            workerPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCase2() throws Exception {
+        // 受信中に停止した場合は受信中のソケットを返し、停止中の接続は無視すること
+        DataReceiveWorkerPool workerPool = new DataReceiveWorkerPool(1);
+        final CountDownLatch receiveLatch = new CountDownLatch(1);
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+        PooledReceiveTask<String> receiveTask = new PooledReceiveTask<String>(workerPool) {
+            @Override
+            protected void receive(String socket) {
+                receiveLatch.countDown();
+                try {
+                    blockLatch.await();
+                } catch (InterruptedException e) {
+                }
+            }
+
+            @Override
+            protected String getConnectedSocket() {
+                return null;
+            }
+        };
+
+        try {
+            receiveTask.onConnected("socket1");
+            assertEquals(0, workerPool.getQueueDepth());
+            assertEquals(0, workerPool.getActiveCount());
+
+            assertTrue(receiveTask.startTask());
+            assertFalse(receiveTask.startTask());
+            receiveTask.onConnected("socket1");
+            assertTrue(receiveLatch.await(5, TimeUnit.SECONDS));
+
+            assertEquals("socket1", receiveTask.stopTask());
+            assertNull(receiveTask.stopTask());
+        } finally {
+            blockLatch.countDown();
+            workerPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCase3() throws Exception {
+        // 受信処理が例外で終了しても、次の接続で受信を再開すること
+        DataReceiveWorkerPool workerPool = new DataReceiveWorkerPool(1);
+        final LinkedBlockingQueue<String> receivedSocketQueue = new LinkedBlockingQueue<String>();
+        PooledReceiveTask<String> receiveTask = new PooledReceiveTask<String>(workerPool) {
+            @Override
+            protected void receive(String socket) {
+                receivedSocketQueue.add(socket);
+                if ("socket1".equals(socket)) {
+                    throw new IllegalStateException("test");
+                }
+            }
+
+            @Override
+            protected String getConnectedSocket() {
+                return null;
+            }
+        };
+
+        try {
+            assertTrue(receiveTask.startTask());
+            receiveTask.onConnected("socket1");
+            assertEquals("socket1", receivedSocketQueue.poll(5, TimeUnit.SECONDS));
+
+            long timeoutTimeMS = System.currentTimeMillis() + 5000;
+            while (receivedSocketQueue.isEmpty() && System.currentTimeMillis() < timeoutTimeMS) {
+                receiveTask.onConnected("socket2");
+                Thread.sleep(10);
+            }
+            assertEquals("socket2", receivedSocketQueue.poll(5, TimeUnit.SECONDS));
+        } finally {
+            workerPool.shutdown();
+        }
+    }
+}
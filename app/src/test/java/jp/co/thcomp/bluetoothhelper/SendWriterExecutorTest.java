@@ -0,0 +1,25 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SendWriterExecutorTest {
+    @Test
+    public void testCase1() throws Exception {
+        // 開始時にライタ数分のライタが常駐し、開始中に増やしたライタも常駐すること
+        SendWriterExecutor executor = new SendWriterExecutor(3);
+
+        try {
+            assertEquals(0, executor.getPoolSize());
+
+            executor.startWriters();
+            assertEquals(3, executor.getPoolSize());
+
+            executor.setWriterCount(5);
+            assertEquals(5, executor.getPoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteCoalescerTest {
+    private static class TestWriteCoalescer extends WriteCoalescer<byte[]> {
+        final ArrayDeque<byte[]> mSendDataQueue = new ArrayDeque<byte[]>();
+        int mWaitCount = 0;
+
+        @Override
+        protected byte[] peekSendData() {
+            return mSendDataQueue.peek();
+        }
+
+        @Override
+        protected void pollSendData() {
+            mSendDataQueue.poll();
+        }
+
+        @Override
+        protected int getSize(byte[] sendData) {
+            return sendData.length;
+        }
+
+        @Override
+        protected int copyTo(byte[] sendData, byte[] buffer, int offset) {
+            System.arraycopy(sendData, 0, buffer, offset, sendData.length);
+            return sendData.length;
+        }
+
+        @Override
+        protected boolean waitSendData(long waitTimeNS) {
+            mWaitCount++;
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitTimeNS);
+            } catch (InterruptedException e) {
+            }
+            return !mSendDataQueue.isEmpty();
+        }
+
+        @Override
+        protected boolean isActive() {
+            return true;
+        }
+    }
+
+    @Test
+    public void testCase1() throws Exception {
+        // flushDelayMS 0でも、既に送信待ちのデータは待機せずに1回の書き込みにまとめること
+        TestWriteCoalescer coalescer = new TestWriteCoalescer();
+        byte[][] sendDataArray = {{1, 2}, {3}, {4, 5, 6}, {7, 8}};
+
+        coalescer.mSendDataQueue.addAll(Arrays.asList(sendDataArray).subList(1, sendDataArray.length));
+        assertEquals(8, coalescer.coalesce(sendDataArray[0], 16, 0));
+        assertEquals(sendDataArray.length, coalescer.getCoalescedDataList().size());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, Arrays.copyOf(coalescer.getBuffer(), coalescer.getBufferedSize()));
+        assertTrue(coalescer.mSendDataQueue.isEmpty());
+        assertEquals(0, coalescer.mWaitCount);
+    }
+
+    @Test
+    public void testCase2() throws Exception {
+        // flushSizeを超えるデータは次の書き込みに残すこと
+        TestWriteCoalescer coalescer = new TestWriteCoalescer();
+        byte[][] sendDataArray = {{1, 2}, {3, 4}, {5, 6, 7}};
+
+        coalescer.mSendDataQueue.addAll(Arrays.asList(sendDataArray).subList(1, sendDataArray.length));
+        assertEquals(4, coalescer.coalesce(sendDataArray[0], 6, 0));
+        assertEquals(2, coalescer.getCoalescedDataList().size());
+        assertEquals(1, coalescer.mSendDataQueue.size());
+
+        coalescer.clear();
+        assertEquals(0, coalescer.getCoalescedDataList().size());
+        coalescer.mSendDataQueue.poll();
+        assertEquals(3, coalescer.coalesce(sendDataArray[2], 6, 0));
+    }
+
+    @Test
+    public void testCase3() throws Exception {
+        // 送信待ちデータがない場合はflushDelayMSまで待機すること
+        TestWriteCoalescer coalescer = new TestWriteCoalescer();
+        long startTimeNS = System.nanoTime();
+
+        assertEquals(1, coalescer.coalesce(new byte[]{1}, 16, 20));
+        assertTrue(coalescer.mWaitCount > 0);
+        assertTrue(System.nanoTime() - startTimeNS >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+}
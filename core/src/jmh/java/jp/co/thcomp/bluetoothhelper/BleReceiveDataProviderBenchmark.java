@@ -0,0 +1,87 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1メッセージ分のパケットを受信してgetData()で取り出すまでの処理時間
+ * ns/packetはスコアをpacketCount(設定パケットを含む)で割って求める
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Thread)
+public class BleReceiveDataProviderBenchmark {
+    public enum Order {
+        InOrder,
+        Reversed,
+        Shuffled,
+    }
+
+    @Param({"20", "23", "185", "247", "517"})
+    public int mtu;
+
+    @Param({"16", "1024", "65536", "1048576", "16777216"})
+    public int dataSize;
+
+    @Param({"InOrder", "Reversed", "Shuffled"})
+    public Order order;
+
+    @Param({"1", "2"})
+    public int protocolVersion;
+
+    private byte[][] mPackets;
+
+    @Setup
+    public void setup() {
+        byte[] data = new byte[dataSize];
+        new Random(dataSize).nextBytes(data);
+
+        BleSendDataProvider sendDataProvider = new BleSendDataProvider(data, protocolVersion);
+        ArrayList<byte[]> packetList = new ArrayList<>();
+        for (int i = 0, size = sendDataProvider.getPacketCount(mtu); i < size; i++) {
+            packetList.add(sendDataProvider.getPacket(mtu, i));
+        }
+
+        switch (order) {
+            case Reversed:
+                Collections.reverse(packetList);
+                break;
+            case Shuffled:
+                Collections.shuffle(packetList, new Random(mtu));
+                break;
+            default:
+                break;
+        }
+
+        mPackets = packetList.toArray(new byte[0][]);
+    }
+
+    @Benchmark
+    public void addPacketAndGetData(Blackhole blackhole) {
+        BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+
+        for (byte[] packet : mPackets) {
+            recvDataProvider.addPacket(packet);
+        }
+
+        blackhole.consume(recvDataProvider.getData());
+    }
+}
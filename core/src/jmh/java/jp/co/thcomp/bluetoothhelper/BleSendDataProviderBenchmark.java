@@ -0,0 +1,71 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1パケット作成あたりの処理時間(ns/packet)
+ * パケットポジションは呼び出し毎に循環させるので、データサイズに関わらず1回の呼び出しが1パケット
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Thread)
+public class BleSendDataProviderBenchmark {
+    @Param({"20", "23", "185", "247", "517"})
+    public int mtu;
+
+    @Param({"16", "1024", "65536", "1048576", "16777216"})
+    public int dataSize;
+
+    @Param({"1", "2"})
+    public int protocolVersion;
+
+    private BleSendDataProvider mSendDataProvider;
+    private byte[] mPacketBuffer;
+    private int mPacketCount;
+    private int mPacketIndex = 0;
+
+    @Setup
+    public void setup() {
+        byte[] data = new byte[dataSize];
+        new Random(dataSize).nextBytes(data);
+
+        mSendDataProvider = new BleSendDataProvider(data, protocolVersion);
+        mPacketBuffer = new byte[mtu];
+        mPacketCount = mSendDataProvider.getPacketCount(mtu);
+    }
+
+    @Benchmark
+    public byte[] getPacket() {
+        byte[] ret = mSendDataProvider.getPacket(mtu, mPacketIndex);
+        if (++mPacketIndex == mPacketCount) {
+            mPacketIndex = 0;
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int encodePacket() throws IOException {
+        int ret = mSendDataProvider.encodePacket(mtu, mPacketIndex, mPacketBuffer, 0);
+        if (++mPacketIndex == mPacketCount) {
+            mPacketIndex = 0;
+        }
+        return ret;
+    }
+}
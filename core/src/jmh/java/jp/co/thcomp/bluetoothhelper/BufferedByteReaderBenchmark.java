@@ -0,0 +1,83 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LineCount行のデータを全てreadLine、またはread(byte[], int, int)で読み込むまでの処理時間
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Thread)
+public class BufferedByteReaderBenchmark {
+    private static final int LineCount = 16;
+
+    @Param({"16", "1024", "65536", "1048576"})
+    public int lineSize;
+
+    @Param({"LF", "CRLF"})
+    public String delimiterType;
+
+    private byte[] mDelimiter;
+    private byte[] mData;
+    private byte[] mReadBuffer = new byte[4096];
+
+    @Setup
+    public void setup() {
+        mDelimiter = "CRLF".equals(delimiterType) ? "\r\n".getBytes() : "\n".getBytes();
+        mData = new byte[(lineSize + mDelimiter.length) * LineCount];
+
+        byte[] line = new byte[lineSize];
+        Arrays.fill(line, (byte) 'a');
+        for (int i = 0; i < LineCount; i++) {
+            System.arraycopy(line, 0, mData, (lineSize + mDelimiter.length) * i, lineSize);
+            System.arraycopy(mDelimiter, 0, mData, (lineSize + mDelimiter.length) * i + lineSize, mDelimiter.length);
+        }
+    }
+
+    @Benchmark
+    public void readLine(Blackhole blackhole) throws IOException {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(mData);
+        BufferedByteReader reader = new BufferedByteReader(inputStream);
+
+        for (int i = 0; i < LineCount; i++) {
+            blackhole.consume(reader.readLine(mDelimiter));
+        }
+
+        reader.close();
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(mData);
+        BufferedByteReader reader = new BufferedByteReader(inputStream);
+        int ret = 0;
+
+        // 先頭行を読み過ぎたデータからの読み込みと、ストリームからの直接読み込みの両方を含む
+        reader.readLine(mDelimiter);
+        for (int readSize; (readSize = reader.read(mReadBuffer, 0, mReadBuffer.length)) > 0; ) {
+            ret += readSize;
+        }
+
+        reader.close();
+        return ret;
+    }
+}
@@ -0,0 +1,156 @@
+package jp.co.thcomp.bluetoothhelper;
+
+/**
+ * 20バイトは必須
+ * 0-1バイト：メッセージID(ShortMax上限且つPeripheralからの送信順番を示すが値は循環する)
+ * 2-5バイト：パケットサイズ、MTUサイズ以下の値が設定される(IntMax上限)
+ * 6-9バイト: パケットポジション、0は設定パケット、1以上の値が設定されている場合はデータパケット(IntMax上限)
+ * [設定パケット]
+ * 10-13バイト：パケット数(設定パケットも含む)(IntMax上限)
+ * 14-17バイト：データサイズ(IntMax上限)
+ * [データパケット]
+ * 10バイト：次のパケットがあるかのフラグ、０：次パケットなし、１：次パケットあり
+ * 以後、2-5バイトに記載されていたサイズ - 11バイトを引算したサイズだけデータが格納
+ * <p>
+ * MTUが20バイトの場合、最大(IntMax - 1) * (20 - 11) = 17GB程度送信可能
+ * <p>
+ * [バージョン2]
+ * 設定パケットは上記と同じ構成で、18バイト目にプロトコルバージョンを追加(パケットサイズは19)
+ * (18バイト目がない設定パケットはバージョン1)
+ * データパケットは以下の構成
+ * 0-1バイト：メッセージID
+ * 2バイト以降：パケットポジション * 2 + 次のパケットがあるかのフラグ(varint)
+ * 続けて：データサイズ(varint)、以後データサイズ分だけデータが格納
+ * varintは下位7ビットずつ格納し、最上位ビットが1の場合は後続バイトあり
+ * バージョン1のデータパケットは2バイト目(パケットサイズの最上位バイト)が必ず0、
+ * バージョン2のデータパケットは2バイト目が必ず0以外なので、設定パケットより先に届いても区別可能
+ * <p>
+ * MTUが20バイトの場合、ヘッダは4-5バイト程度になり1パケット当たり15バイト程度のデータを格納可能
+ */
+abstract public class BleDataProvider {
+    public static final int ProtocolVersion1 = 1;
+    public static final int ProtocolVersion2 = 2;
+    public static final int LatestProtocolVersion = ProtocolVersion2;
+
+    protected static final int IndexMessageID = 0;
+    protected static final int LengthMessageID = 2;
+    protected static final int IndexPacketSize = IndexMessageID + LengthMessageID;
+    protected static final int LengthPacketSize = 4;
+    protected static final int IndexPacketPosition = IndexPacketSize + LengthPacketSize;
+    protected static final int LengthPacketPosition = 4;
+
+    private static final int LengthPacketHeaderSize = LengthMessageID + LengthPacketSize + LengthPacketPosition;
+
+    // 設定パケット
+    protected static final int IndexPacketCount = IndexPacketPosition + LengthPacketPosition;
+    protected static final int LengthPacketCount = 4;
+    protected static final int IndexDataSize = IndexPacketCount + LengthPacketCount;
+    protected static final int LengthDataSize = 4;
+    protected static final int LengthSettingPacketHeaderSize = LengthPacketHeaderSize + LengthPacketCount + LengthDataSize;
+
+    // データパケット
+    protected static final int IndexExistNextPacket = IndexPacketPosition + LengthPacketPosition;
+    protected static final int LengthExistNextPacket = 1;
+    protected static final int IndexDataStartPosition = IndexExistNextPacket + LengthExistNextPacket;
+    protected static final int LengthDataPacketHeaderSize = LengthPacketHeaderSize + LengthExistNextPacket;
+
+    // 設定パケット(バージョン2以降)
+    protected static final int IndexProtocolVersion = IndexDataSize + LengthDataSize;
+    protected static final int LengthProtocolVersion = 1;
+    protected static final int LengthSettingPacketHeaderSizeV2 = LengthSettingPacketHeaderSize + LengthProtocolVersion;
+
+    // データパケット(バージョン2)
+    protected static final int IndexPositionAndFlagV2 = IndexMessageID + LengthMessageID;
+    protected static final int MaxLengthVarint = 5;
+    protected static final int MaxLengthDataPacketHeaderSizeV2 = LengthMessageID + MaxLengthVarint + MaxLengthVarint;
+
+    protected static final byte NotExistNextPacket = 0;
+    protected static final byte ExistNextPacket = 1;
+
+    protected byte[] mData;
+    protected Short mMessageId;
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    public Short getMessageId() {
+        return mMessageId;
+    }
+
+    /**
+     * 相手側がサポートしているプロトコルバージョンと自身のサポートバージョンから、送信に使用するバージョンを決定
+     * 計算のみで、相手側とのバージョンのやり取りは行わない
+     * 相手側のバージョンはアプリケーションが別途取得し(キャラクタリスティック・事前の取り決め等)、
+     * BleTransferSettings.setPeerProtocolVersionで設定すること(未設定の場合はバージョン1で送信)
+     *
+     * @param peerProtocolVersion 相手側がサポートしている最新のプロトコルバージョン
+     * @return 双方がサポートしているプロトコルバージョン
+     */
+    public static int negotiateProtocolVersion(int peerProtocolVersion) {
+        return Math.max(ProtocolVersion1, Math.min(LatestProtocolVersion, peerProtocolVersion));
+    }
+
+    protected static short getShort(byte[] buffer, int index) {
+        return (short) (((buffer[index] & 0xFF) << 8) | (buffer[index + 1] & 0xFF));
+    }
+
+    protected static int getInt(byte[] buffer, int index) {
+        return ((buffer[index] & 0xFF) << 24) | ((buffer[index + 1] & 0xFF) << 16) | ((buffer[index + 2] & 0xFF) << 8) | (buffer[index + 3] & 0xFF);
+    }
+
+    protected static void putShort(byte[] buffer, int index, short value) {
+        buffer[index] = (byte) (value >> 8);
+        buffer[index + 1] = (byte) value;
+    }
+
+    protected static void putInt(byte[] buffer, int index, int value) {
+        buffer[index] = (byte) (value >> 24);
+        buffer[index + 1] = (byte) (value >> 16);
+        buffer[index + 2] = (byte) (value >> 8);
+        buffer[index + 3] = (byte) value;
+    }
+
+    protected static int getVarintSize(long value) {
+        int ret = 1;
+        while ((value >>>= 7) != 0) {
+            ret++;
+        }
+        return ret;
+    }
+
+    /**
+     * @return 書き込んだバイト数
+     */
+    protected static int putVarint(byte[] buffer, int index, long value) {
+        int ret = 0;
+
+        while ((value & ~0x7FL) != 0) {
+            buffer[index + ret++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[index + ret++] = (byte) value;
+
+        return ret;
+    }
+
+    /**
+     * @return 読み込んだ値、limitまでに終端がない場合やMaxLengthVarintバイトを超える場合は-1
+     */
+    protected static long getVarint(byte[] buffer, int index, int limit) {
+        long ret = -1;
+        long value = 0;
+
+        for (int i = 0; i < MaxLengthVarint && index + i < limit; i++) {
+            byte readByte = buffer[index + i];
+            value |= ((long) (readByte & 0x7F)) << (7 * i);
+
+            if ((readByte & 0x80) == 0) {
+                ret = value;
+                break;
+            }
+        }
+
+        return ret;
+    }
+}
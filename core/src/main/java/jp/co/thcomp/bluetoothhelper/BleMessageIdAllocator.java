@@ -0,0 +1,36 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * メッセージIDの払い出し(ロックなし)
+ * 送信先(デバイスやリンク)毎にインスタンスを用意すると、ID空間が送信先毎に独立するので循環までの間隔が長くなる
+ */
+public class BleMessageIdAllocator {
+    private static final BleMessageIdAllocator sDefaultAllocator = new BleMessageIdAllocator();
+
+    /**
+     * @return 送信先を区別しない場合に使用するプロセス共通のインスタンス
+     */
+    public static BleMessageIdAllocator getDefault() {
+        return sDefaultAllocator;
+    }
+
+    private final AtomicInteger mNextMessageId;
+
+    public BleMessageIdAllocator() {
+        this((short) 0);
+    }
+
+    public BleMessageIdAllocator(short initialMessageId) {
+        mNextMessageId = new AtomicInteger(initialMessageId & Short.MAX_VALUE);
+    }
+
+    /**
+     * @return 0-ShortMaxのメッセージID(ShortMaxの次は0に循環)
+     */
+    public short nextMessageId() {
+        // IntMaxを超えて負数になっても下位15ビットは連続しているので、そのまま循環させる
+        return (short) (mNextMessageId.getAndIncrement() & Short.MAX_VALUE);
+    }
+}
@@ -0,0 +1,202 @@
+package jp.co.thcomp.bluetoothhelper;
+
+/**
+ * 複数メッセージのパケットが混在して届く場合に、メッセージID毎にBleReceiveDataProviderへ振り分けて組み立てる
+ * 完了済みメッセージに遅れて届いたパケット等で完了しないメッセージが残り続けないよう、
+ * 最後のパケットからmMessageTimeoutMS経過したメッセージ、及びmMaxInFlightMessageCountを超えた古いメッセージは破棄する
+ * スレッドセーフではないので、同じスレッドから呼び出すか呼び出し元で同期すること
+ */
+public class BleMessageReassembler {
+    public static final int DefaultMaxInFlightMessageCount = 256;
+    public static final long DefaultMessageTimeoutMS = 30000;
+
+    public interface OnMessageCompleteListener {
+        void onMessageComplete(short messageId, byte[] data);
+    }
+
+    private static class InFlightMessage {
+        final BleReceiveDataProvider mReceiveDataProvider = new BleReceiveDataProvider();
+        long mLastPacketTimeMS;
+
+        InFlightMessage(int maxDataSize) {
+            mReceiveDataProvider.setMaxDataSize(maxDataSize);
+        }
+    }
+
+    private final ShortKeyMap<InFlightMessage> mInFlightMessageMap = new ShortKeyMap<>();
+    private OnMessageCompleteListener mMessageCompleteListener;
+    private int mMaxInFlightMessageCount = DefaultMaxInFlightMessageCount;
+    private long mMessageTimeoutMS = DefaultMessageTimeoutMS;
+    private int mMaxDataSize = BleReceiveDataProvider.DefaultMaxDataSize;
+    private long mNextExpireTimeMS = Long.MAX_VALUE;
+
+    public BleMessageReassembler(OnMessageCompleteListener listener) {
+        mMessageCompleteListener = listener;
+    }
+
+    public void setOnMessageCompleteListener(OnMessageCompleteListener listener) {
+        mMessageCompleteListener = listener;
+    }
+
+    /**
+     * @param maxInFlightMessageCount 組み立て中のメッセージ数の上限、超えた場合は最後のパケットが最も古いメッセージを破棄
+     */
+    public void setMaxInFlightMessageCount(int maxInFlightMessageCount) {
+        if (maxInFlightMessageCount <= 0) {
+            throw new IllegalArgumentException("maxInFlightMessageCount <= 0");
+        }
+
+        mMaxInFlightMessageCount = maxInFlightMessageCount;
+    }
+
+    /**
+     * 以降に組み立てを開始するメッセージのデータサイズの上限(BleReceiveDataProvider.setMaxDataSize)
+     */
+    public void setMaxDataSize(int maxDataSize) {
+        if (maxDataSize < 0) {
+            throw new IllegalArgumentException("maxDataSize < 0");
+        }
+
+        mMaxDataSize = maxDataSize;
+    }
+
+    /**
+     * @param messageTimeoutMS 最後のパケットからこの時間が経過したメッセージを破棄、0の場合は破棄しない
+     */
+    public void setMessageTimeout(long messageTimeoutMS) {
+        if (messageTimeoutMS < 0) {
+            throw new IllegalArgumentException("messageTimeoutMS < 0");
+        }
+
+        mMessageTimeoutMS = messageTimeoutMS;
+        mNextExpireTimeMS = Long.MIN_VALUE;
+    }
+
+    /**
+     * @param packetData
+     * @return BleReceiveDataProvider.AddPacketResultSuccess: 追加成功(メッセージが完了した場合はリスナーに通知済み)
+     * BleReceiveDataProvider.AddPacketResultNoData: パケットが空
+     * BleReceiveDataProvider.AddPacketResultInvalidPacket: 設定パケットと矛盾するデータパケット、または不正な設定パケット
+     * BleReceiveDataProvider.AddPacketResultUnsupportedVersion: 未サポートのプロトコルバージョンの設定パケット
+     * BleReceiveDataProvider.AddPacketResultDuplicated: 受信済みのデータパケット
+     */
+    public int addPacket(byte[] packetData) {
+        return addPacket(packetData, System.currentTimeMillis());
+    }
+
+    int addPacket(byte[] packetData, long nowMS) {
+        int ret = BleReceiveDataProvider.AddPacketResultNoData;
+
+        if (packetData != null && packetData.length >= BleDataProvider.LengthMessageID) {
+            // 0-1バイト：メッセージID
+            short messageId = BleDataProvider.getShort(packetData, BleDataProvider.IndexMessageID);
+
+            if (nowMS >= mNextExpireTimeMS) {
+                removeExpiredMessages(nowMS);
+            }
+
+            InFlightMessage inFlightMessage = mInFlightMessageMap.get(messageId);
+            boolean newMessage = inFlightMessage == null;
+
+            if (newMessage) {
+                inFlightMessage = new InFlightMessage(mMaxDataSize);
+            }
+            inFlightMessage.mLastPacketTimeMS = nowMS;
+            if (mMessageTimeoutMS > 0 && mNextExpireTimeMS == Long.MAX_VALUE) {
+                mNextExpireTimeMS = nowMS + mMessageTimeoutMS;
+            }
+
+            BleReceiveDataProvider receiveDataProvider = inFlightMessage.mReceiveDataProvider;
+            ret = receiveDataProvider.addPacket(packetData);
+
+            if (receiveDataProvider.isCompleted()) {
+                if (!newMessage) {
+                    mInFlightMessageMap.remove(messageId);
+                }
+
+                OnMessageCompleteListener listener = mMessageCompleteListener;
+                if (listener != null) {
+                    listener.onMessageComplete(messageId, receiveDataProvider.getData());
+                }
+            } else if (newMessage && ret == BleReceiveDataProvider.AddPacketResultSuccess) {
+                // 不正・未サポートバージョンのパケットで組み立て中のメッセージが押し出されないよう、
+                // 最初のパケットを受け付けた後に上限を確認して登録
+                if (mInFlightMessageMap.size() >= mMaxInFlightMessageCount) {
+                    removeOldestMessages(mInFlightMessageMap.size() - mMaxInFlightMessageCount + 1);
+                }
+
+                mInFlightMessageMap.put(messageId, inFlightMessage);
+            }
+        }
+
+        return ret;
+    }
+
+    public int getInFlightMessageCount() {
+        return mInFlightMessageMap.size();
+    }
+
+    public boolean isInFlight(short messageId) {
+        return mInFlightMessageMap.get(messageId) != null;
+    }
+
+    /**
+     * 送信元の切断などで完了しないメッセージを破棄する
+     */
+    public void removeMessage(short messageId) {
+        mInFlightMessageMap.remove(messageId);
+    }
+
+    public void clear() {
+        mInFlightMessageMap.clear();
+        mNextExpireTimeMS = Long.MAX_VALUE;
+    }
+
+    /**
+     * 最後のパケットからmMessageTimeoutMS経過したメッセージを破棄し、次に確認する時刻を残りのメッセージから決定する
+     */
+    private void removeExpiredMessages(long nowMS) {
+        short[] expiredMessageIds = new short[mInFlightMessageMap.size()];
+        int expiredMessageCount = 0;
+        long oldestPacketTimeMS = Long.MAX_VALUE;
+
+        if (mMessageTimeoutMS > 0) {
+            for (int i = 0, capacity = mInFlightMessageMap.capacity(); i < capacity; i++) {
+                InFlightMessage inFlightMessage = mInFlightMessageMap.valueAt(i);
+
+                if (inFlightMessage != null) {
+                    if (nowMS - inFlightMessage.mLastPacketTimeMS >= mMessageTimeoutMS) {
+                        expiredMessageIds[expiredMessageCount++] = mInFlightMessageMap.keyAt(i);
+                    } else {
+                        oldestPacketTimeMS = Math.min(oldestPacketTimeMS, inFlightMessage.mLastPacketTimeMS);
+                    }
+                }
+            }
+        }
+
+        // 走査中に削除すると位置が詰められるので、走査後に削除
+        for (int i = 0; i < expiredMessageCount; i++) {
+            mInFlightMessageMap.remove(expiredMessageIds[i]);
+        }
+
+        mNextExpireTimeMS = oldestPacketTimeMS == Long.MAX_VALUE ? Long.MAX_VALUE : oldestPacketTimeMS + mMessageTimeoutMS;
+    }
+
+    private void removeOldestMessages(int removeCount) {
+        for (int i = 0; i < removeCount && mInFlightMessageMap.size() > 0; i++) {
+            short oldestMessageId = 0;
+            long oldestPacketTimeMS = Long.MAX_VALUE;
+
+            for (int j = 0, capacity = mInFlightMessageMap.capacity(); j < capacity; j++) {
+                InFlightMessage inFlightMessage = mInFlightMessageMap.valueAt(j);
+
+                if (inFlightMessage != null && inFlightMessage.mLastPacketTimeMS < oldestPacketTimeMS) {
+                    oldestMessageId = mInFlightMessageMap.keyAt(j);
+                    oldestPacketTimeMS = inFlightMessage.mLastPacketTimeMS;
+                }
+            }
+
+            mInFlightMessageMap.remove(oldestMessageId);
+        }
+    }
+}
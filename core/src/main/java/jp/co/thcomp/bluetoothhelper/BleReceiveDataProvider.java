@@ -0,0 +1,409 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BleReceiveDataProvider extends BleDataProvider {
+    public static final int AddPacketResultSuccess = -1;
+    public static final int AddPacketResultAlreadyFinished = -2;
+    public static final int AddPacketResultNoData = -3;
+    public static final int AddPacketResultInvalidPacket = -4;
+    public static final int AddPacketResultDuplicated = -5;
+    public static final int AddPacketResultUnsupportedVersion = -6;
+    public static final int DefaultMaxDataSize = 16 * 1024 * 1024;
+
+    public static class PacketRange {
+        // 両端を含むパケットポジション
+        public int startPosition;
+        public int endPosition;
+
+        PacketRange(int startPosition, int endPosition) {
+            this.startPosition = startPosition;
+            this.endPosition = endPosition;
+        }
+
+        @Override
+        public String toString() {
+            return "PacketRange{" + startPosition + "-" + endPosition + '}';
+        }
+    }
+
+    protected boolean mReceiveDataFinish = false;
+    // データパケットの受信状況(パケットポジション - 1 のビットが受信済み)
+    private long[] mReceivedPacketBits;
+    protected int mDataPacketCount = 0;
+    protected int mReceivedPacketCount = 0;
+    protected int mDataSize;
+    // 最後以外のデータパケットに格納されているデータサイズ(最初に受信したパケットで決定)
+    protected int mPayloadSize = 0;
+    private int mProtocolVersion = ProtocolVersion1;
+    private Short mReservedMessageId = null;
+    private ArrayList<byte[]> mReservedPacketList = new ArrayList<>();
+    private int mMaxDataSize = DefaultMaxDataSize;
+
+    /**
+     * 受信するメッセージのデータサイズの上限(設定パケットのデータサイズ分の受信バッファを確保するため)
+     * 超えるデータサイズの設定パケットはAddPacketResultInvalidPacketで拒否する
+     */
+    public void setMaxDataSize(int maxDataSize) {
+        if (maxDataSize < 0) {
+            throw new IllegalArgumentException("maxDataSize < 0");
+        }
+
+        mMaxDataSize = maxDataSize;
+    }
+
+    public int getMaxDataSize() {
+        return mMaxDataSize;
+    }
+
+    /**
+     * @param packetData
+     * @return AddPacketResultAlreadyFinished: 既に完了済みのメッセージへの追加(追加失敗)
+     * AddPacketResultSuccess: 追加成功
+     * AddPacketResultInvalidPacket: 設定パケットと矛盾するデータパケット、またはパケット数・データサイズが不正(上限超過を含む)な設定パケット(追加失敗)
+     * AddPacketResultDuplicated: 受信済みのデータパケット(追加不要)
+     * AddPacketResultUnsupportedVersion: 未サポートのプロトコルバージョンの設定パケット(追加失敗)
+     * 0-ShortMax: 別のメッセージを追加している(追加失敗)
+     */
+    public int addPacket(byte[] packetData) {
+        int ret = AddPacketResultSuccess;
+
+        if (packetData != null && packetData.length > 0) {
+            if (!mReceiveDataFinish) {
+                if (packetData.length <= IndexPacketSize) {
+                    ret = AddPacketResultInvalidPacket;
+                } else {
+                    // 0-1バイト：メッセージID(ShortMax上限且つPeripheralからの送信順番を示すが値は循環する)
+                    short messageId = getShort(packetData, IndexMessageID);
+
+                    // 6-9バイト: パケットポジション、0は設定パケット、1以上の値が設定されている場合はデータパケット
+                    // (バージョン2のデータパケットは2バイト目が0以外)
+                    boolean settingPacket = packetData[IndexPacketSize] == 0 &&
+                            packetData.length >= IndexPacketPosition + LengthPacketPosition &&
+                            getInt(packetData, IndexPacketPosition) == 0;
+
+                    if (settingPacket) {
+                        ret = addSettingPacket(messageId, packetData);
+                    } else {
+                        if (mMessageId == null) {
+                            if (mReservedMessageId == null) {
+                                mReservedMessageId = messageId;
+                            }
+
+                            if (mReservedMessageId == messageId) {
+                                // 設定パケットが未だないので保留リストに
+                                ret = reservePacket(packetData);
+                            }
+                        } else if (mMessageId == messageId) {
+                            // データパケット
+                            ret = addDataPacket(packetData);
+                        } else {
+                            ret = messageId;
+                        }
+                    }
+                }
+            } else {
+                ret = AddPacketResultAlreadyFinished;
+            }
+        } else {
+            ret = AddPacketResultNoData;
+        }
+
+        return ret;
+    }
+
+    private int addSettingPacket(short messageId, byte[] packetData) {
+        int ret = AddPacketResultSuccess;
+
+        if (mMessageId == null) {
+            boolean matchMessageId = true;
+            if (mReservedMessageId != null) {
+                // 既にリザーブされたMessageIdがあるので、それ以外の設定パケットは受け付けない
+                if (messageId != mReservedMessageId) {
+                    matchMessageId = false;
+                }
+            }
+
+            if (matchMessageId) {
+                // 2-5バイト：パケットサイズ
+                int packetSize = getInt(packetData, IndexPacketSize);
+                int protocolVersion = ProtocolVersion1;
+
+                if (packetSize >= LengthSettingPacketHeaderSizeV2 && packetData.length >= LengthSettingPacketHeaderSizeV2) {
+                    // 18バイト：プロトコルバージョン(バージョン2以降)
+                    protocolVersion = packetData[IndexProtocolVersion] & 0xFF;
+                }
+
+                if (packetData.length < LengthSettingPacketHeaderSize) {
+                    ret = AddPacketResultInvalidPacket;
+                } else if (protocolVersion > LatestProtocolVersion) {
+                    ret = AddPacketResultUnsupportedVersion;
+                } else if (!isValidSetting(getInt(packetData, IndexPacketCount), getInt(packetData, IndexDataSize))) {
+                    ret = AddPacketResultInvalidPacket;
+                } else {
+                    mMessageId = messageId;
+                    mProtocolVersion = protocolVersion;
+
+                    // 設定パケット
+                    // 10-13バイト：パケット数(設定パケットも含む)(IntMax上限)
+                    mDataPacketCount = getInt(packetData, IndexPacketCount) - 1;
+
+                    // 14-17バイト：データサイズ(IntMax上限)
+                    mDataSize = getInt(packetData, IndexDataSize);
+                    prepareDataBuffer();
+
+                    if (mReservedMessageId != null && mReservedPacketList.size() > 0) {
+                        // 保留されているメッセージを展開
+                        for (byte[] reservedPacketData : mReservedPacketList) {
+                            addPacket(reservedPacketData);
+                        }
+                    }
+
+                    mReservedMessageId = null;
+                    mReservedPacketList.clear();
+
+                    if (mReceivedPacketCount == mDataPacketCount) {
+                        // データサイズ0のメッセージは設定パケットのみで完了
+                        mReceiveDataFinish = true;
+                    }
+                }
+            }
+        } else {
+            // 別のメッセージパケットを追加しようとしているので、新しい方のメッセージIDを返却
+            ret = messageId;
+        }
+
+        return ret;
+    }
+
+    /**
+     * 設定パケットのパケット数・データサイズは送信元の値をそのまま信用できないので、受信バッファを用意する前に確認する
+     * データパケットは1バイト以上のデータを格納するので、データパケット数はデータサイズ以下
+     * (データサイズ0のメッセージはデータパケットなし)
+     *
+     * @param packetCount 設定パケットも含むパケット数
+     */
+    private boolean isValidSetting(int packetCount, int dataSize) {
+        boolean ret = false;
+
+        if (packetCount >= 1 && dataSize >= 0 && dataSize <= mMaxDataSize) {
+            int dataPacketCount = packetCount - 1;
+            ret = dataPacketCount <= dataSize && (dataSize == 0 || dataPacketCount > 0);
+        }
+
+        return ret;
+    }
+
+    private int addDataPacket(byte[] packetData) {
+        int ret = AddPacketResultInvalidPacket;
+        long packetPosition = -1;
+        byte existNextPacket = NotExistNextPacket;
+        int dataStartPosition = 0;
+        int dataSize = -1;
+
+        if (packetData[IndexPacketSize] == 0) {
+            if (mProtocolVersion == ProtocolVersion1 && packetData.length >= LengthDataPacketHeaderSize) {
+                // 2-5バイト：パケットサイズ、MTUサイズ以下の値が設定される
+                int packetSize = getInt(packetData, IndexPacketSize);
+
+                if (packetSize >= LengthDataPacketHeaderSize && packetSize <= packetData.length) {
+                    // 6-9バイト: パケットポジション
+                    packetPosition = getInt(packetData, IndexPacketPosition);
+
+                    // 10 バイト：次のパケットがあるかのフラグ、０：次パケットなし、１：次パケットあり
+                    existNextPacket = packetData[IndexExistNextPacket];
+
+                    // 以後、2-5バイトに記載されていたサイズ - 11バイトを引算したサイズだけデータが格納
+                    dataStartPosition = IndexDataStartPosition;
+                    dataSize = packetSize - LengthDataPacketHeaderSize;
+                }
+            }
+        } else if (mProtocolVersion >= ProtocolVersion2) {
+            // パケットポジション * 2 + 次のパケットがあるかのフラグ(varint)
+            long positionAndFlag = getVarint(packetData, IndexPositionAndFlagV2, packetData.length);
+
+            if (positionAndFlag >= 0) {
+                // データサイズ(varint)
+                int index = IndexPositionAndFlagV2 + getVarintSize(positionAndFlag);
+                long tempDataSize = getVarint(packetData, index, packetData.length);
+
+                if (tempDataSize >= 0) {
+                    index += getVarintSize(tempDataSize);
+
+                    if (tempDataSize <= packetData.length - index) {
+                        packetPosition = positionAndFlag >>> 1;
+                        existNextPacket = (positionAndFlag & 1) == 0 ? NotExistNextPacket : ExistNextPacket;
+                        dataStartPosition = index;
+                        dataSize = (int) tempDataSize;
+                    }
+                }
+            }
+        }
+
+        if (packetPosition >= 1 && packetPosition <= mDataPacketCount && dataSize >= 0) {
+            ret = storeDataPacket((int) packetPosition, existNextPacket, packetData, dataStartPosition, dataSize);
+        }
+
+        return ret;
+    }
+
+    /**
+     * 設定パケットの受信時に、mDataSize、mDataPacketCountに合わせて受信バッファを用意する
+     */
+    protected void prepareDataBuffer() {
+        mReceivedPacketBits = new long[(mDataPacketCount + Long.SIZE - 1) / Long.SIZE];
+
+        // 受信データはパケット毎に分割して保持せず、最初からデータサイズ分のバッファに直接書き込む
+        mData = new byte[mDataSize];
+    }
+
+    /**
+     * 設定パケットより先に届いたデータパケットを保留する
+     *
+     * @return AddPacketResultSuccess: 保留成功
+     */
+    protected int reservePacket(byte[] packetData) {
+        mReservedPacketList.add(packetData);
+        return AddPacketResultSuccess;
+    }
+
+    protected int getReservedPacketCount() {
+        return mReservedPacketList.size();
+    }
+
+    /**
+     * ヘッダを解析済みのデータパケットを受信バッファに格納する
+     *
+     * @param packetPosition    1-mDataPacketCount
+     * @param existNextPacket
+     * @param packetData
+     * @param dataStartPosition packetData内のデータの開始位置
+     * @param dataSize
+     * @return AddPacketResultSuccess, AddPacketResultDuplicated, AddPacketResultInvalidPacket
+     */
+    protected int storeDataPacket(int packetPosition, byte existNextPacket, byte[] packetData, int dataStartPosition, int dataSize) {
+        int ret = AddPacketResultInvalidPacket;
+        long dataOffset = -1;
+
+        if (isReceived(packetPosition)) {
+            // 再送などで重複したパケット
+            ret = AddPacketResultDuplicated;
+        } else if (existNextPacket == NotExistNextPacket) {
+            // 最後のパケットはデータの末尾に配置(最後以外のポジションで次のパケットなしは不正)
+            if (packetPosition == mDataPacketCount) {
+                dataOffset = mDataSize - dataSize;
+            }
+        } else if (packetPosition < mDataPacketCount) {
+            // 最後以外のパケットは全て同じサイズなので、最初に受信したパケットのサイズで位置を決定
+            if (mPayloadSize == 0) {
+                mPayloadSize = dataSize;
+            }
+            if (mPayloadSize == dataSize) {
+                dataOffset = (long) (packetPosition - 1) * mPayloadSize;
+            }
+        }
+
+        if (dataOffset >= 0 && dataOffset + dataSize <= mDataSize) {
+            ret = AddPacketResultSuccess;
+            System.arraycopy(packetData, dataStartPosition, mData, (int) dataOffset, dataSize);
+            mReceivedPacketBits[(packetPosition - 1) >>> 6] |= 1L << (packetPosition - 1);
+            mReceivedPacketCount++;
+
+            if (mReceivedPacketCount == mDataPacketCount) {
+                mReceiveDataFinish = true;
+            }
+        }
+
+        return ret;
+    }
+
+    public int getProtocolVersion() {
+        return mProtocolVersion;
+    }
+
+    public boolean isCompleted() {
+        return mReceiveDataFinish;
+    }
+
+    public int getReceivedPacketCount() {
+        return mReceivedPacketCount;
+    }
+
+    /**
+     * @return 未受信のデータパケットポジションの範囲一覧(再送要求用)、設定パケット未受信の場合はnull
+     */
+    public List<PacketRange> getMissingPositions() {
+        List<PacketRange> ret = null;
+
+        if (mReceivedPacketBits != null) {
+            ret = new ArrayList<>();
+
+            if (!mReceiveDataFinish) {
+                int startPosition = 0;
+
+                for (int position = 1; position <= mDataPacketCount; position++) {
+                    long bits = mReceivedPacketBits[(position - 1) >>> 6];
+
+                    if (startPosition == 0 && bits == -1L && ((position - 1) & 63) == 0 && position + 63 <= mDataPacketCount) {
+                        // 64パケット全て受信済みのワードは読み飛ばす
+                        position += 63;
+                        continue;
+                    }
+
+                    if ((bits & (1L << (position - 1))) == 0) {
+                        if (startPosition == 0) {
+                            startPosition = position;
+                        }
+                    } else if (startPosition != 0) {
+                        ret.add(new PacketRange(startPosition, position - 1));
+                        startPosition = 0;
+                    }
+                }
+
+                if (startPosition != 0) {
+                    ret.add(new PacketRange(startPosition, mDataPacketCount));
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    private boolean isReceived(int packetPosition) {
+        return (mReceivedPacketBits[(packetPosition - 1) >>> 6] & (1L << (packetPosition - 1))) != 0;
+    }
+
+    /**
+     * @return 受信完了していれば受信バッファそのもの(コピーなし)、未完了ならnull
+     */
+    @Override
+    public byte[] getData() {
+        byte[] ret = null;
+        if (mReceiveDataFinish) {
+            ret = super.getData();
+        }
+        return ret;
+    }
+
+    /**
+     * @return 受信完了していれば受信バッファの読み込み専用ビュー(コピーなし)、未完了ならnull
+     */
+    public ByteBuffer getDataBuffer() {
+        ByteBuffer ret = null;
+        if (mReceiveDataFinish) {
+            ret = ByteBuffer.wrap(mData).asReadOnlyBuffer();
+        }
+        return ret;
+    }
+
+    @Override
+    public Short getMessageId() {
+        if (mReservedMessageId != null && mMessageId == null) {
+            return mReservedMessageId;
+        } else {
+            return super.getMessageId();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+public class BleSendDataProvider extends BleDataProvider {
+    private int mProtocolVersion;
+    // ByteBufferがbyte[]を持たない場合のヘッダ作成用(パケット毎には確保しない)
+    private byte[] mHeaderBuffer;
+
+    public BleSendDataProvider(byte[] data) {
+        this(data, ProtocolVersion1);
+    }
+
+    /**
+     * @param data
+     * @param protocolVersion 受信側とnegotiateProtocolVersionで決定したプロトコルバージョン
+     */
+    public BleSendDataProvider(byte[] data, int protocolVersion) {
+        this(data, protocolVersion, BleMessageIdAllocator.getDefault());
+    }
+
+    /**
+     * @param data
+     * @param protocolVersion 受信側とnegotiateProtocolVersionで決定したプロトコルバージョン
+     * @param allocator       送信先毎のメッセージID払い出し(BleTransferSettings.getMessageIdAllocator()など)
+     */
+    public BleSendDataProvider(byte[] data, int protocolVersion, BleMessageIdAllocator allocator) {
+        this(protocolVersion, allocator);
+        mData = data;
+    }
+
+    /**
+     * データを保持しないサブクラス用、getDataSize/readDataでデータを提供すること
+     */
+    protected BleSendDataProvider(int protocolVersion, BleMessageIdAllocator allocator) {
+        if (protocolVersion < ProtocolVersion1 || protocolVersion > LatestProtocolVersion) {
+            throw new IllegalArgumentException("unsupported protocol version: " + protocolVersion);
+        }
+        if (allocator == null) {
+            throw new NullPointerException("allocator == null");
+        }
+
+        mProtocolVersion = protocolVersion;
+        mMessageId = allocator.nextMessageId();
+    }
+
+    public int getProtocolVersion() {
+        return mProtocolVersion;
+    }
+
+    /**
+     * @param mtu
+     * @return 設定パケットを含むパケット数
+     */
+    public int getPacketCount(int mtu) {
+        int maxDataSize = getMaxDataSize(mtu);
+        return 1/*設定パケット*/ + getDataPacketCount(maxDataSize);
+    }
+
+    /**
+     * @param mtu
+     * @param packetIndex
+     * @return packetIndexのパケットサイズ、範囲外のpacketIndexの場合は0
+     */
+    public int getPacketSize(int mtu, int packetIndex) {
+        int ret = 0;
+        int maxDataSize = getMaxDataSize(mtu);
+        int packetCount = 1/*設定パケット*/ + getDataPacketCount(maxDataSize);
+
+        if (packetIndex == 0) {
+            ret = getSettingPacketSize();
+        } else if (packetIndex > 0 && packetIndex < packetCount) {
+            int dataSize = getDataSize(maxDataSize, packetIndex, packetCount);
+            ret = getDataPacketHeaderSize(packetIndex, packetCount, dataSize) + dataSize;
+        }
+
+        return ret;
+    }
+
+    /**
+     * @param mtu
+     * @param packetIndex
+     * @return パケット、範囲外のpacketIndexの場合はnull
+     * @throws IllegalStateException データの読み込みに失敗(ストリーム等から読み込む場合、nullと区別するため非チェック例外で通知)
+     */
+    public byte[] getPacket(int mtu, int packetIndex) {
+        byte[] ret = null;
+        int packetSize = getPacketSize(mtu, packetIndex);
+
+        if (packetSize > 0) {
+            ret = new byte[packetSize];
+
+            try {
+                encodePacket(mtu, packetIndex, ret, 0);
+            } catch (IOException e) {
+                // nullを返すとパケットの終端と区別できず、途中までのメッセージが送信完了として扱われてしまう
+                throw new IllegalStateException("failed to read packet " + packetIndex, e);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * 呼び出し元が用意したバッファにパケットを直接書き込む(内部でのメモリ確保なし)
+     *
+     * @param mtu
+     * @param packetIndex
+     * @param buffer      書き込み先、offsetからgetPacketSize(mtu, packetIndex)バイト以上の空きが必要
+     * @param offset
+     * @return 書き込んだバイト数、範囲外のpacketIndexの場合は0
+     * @throws IOException データの読み込みに失敗(サブクラスでファイルやストリームからデータを読み込む場合)
+     */
+    public int encodePacket(int mtu, int packetIndex, byte[] buffer, int offset) throws IOException {
+        int packetSize = getPacketSize(mtu, packetIndex);
+
+        if (packetSize > 0) {
+            if (offset < 0 || buffer.length - offset < packetSize) {
+                throw new IndexOutOfBoundsException("buffer.length = " + buffer.length + ", offset = " + offset + ", packetSize = " + packetSize);
+            }
+
+            int maxDataSize = getMaxDataSize(mtu);
+            int headerSize = encodeHeader(maxDataSize, packetIndex, packetSize, buffer, offset);
+
+            if (packetIndex > 0) {
+                // データ
+                readData(getDataOffset(maxDataSize, packetIndex), buffer, offset + headerSize, packetSize - headerSize);
+            }
+        }
+
+        return packetSize;
+    }
+
+    /**
+     * 呼び出し元が用意したバッファの現在位置にパケットを直接書き込み、書き込んだ分だけpositionを進める
+     * (バッファのByteOrderに関わらずビッグエンディアンで書き込む)
+     *
+     * @param mtu
+     * @param packetIndex
+     * @param buffer
+     * @return 書き込んだバイト数、範囲外のpacketIndexの場合は0
+     * @throws IOException データの読み込みに失敗(サブクラスでファイルやストリームからデータを読み込む場合)
+     */
+    public int encodePacket(int mtu, int packetIndex, ByteBuffer buffer) throws IOException {
+        int packetSize = getPacketSize(mtu, packetIndex);
+
+        if (packetSize > 0) {
+            if (buffer.remaining() < packetSize) {
+                throw new BufferOverflowException();
+            }
+
+            if (buffer.hasArray()) {
+                int position = buffer.position();
+                encodePacket(mtu, packetIndex, buffer.array(), buffer.arrayOffset() + position);
+                buffer.position(position + packetSize);
+            } else {
+                if (mHeaderBuffer == null) {
+                    mHeaderBuffer = new byte[Math.max(LengthSettingPacketHeaderSizeV2, Math.max(LengthDataPacketHeaderSize, MaxLengthDataPacketHeaderSizeV2))];
+                }
+
+                int maxDataSize = getMaxDataSize(mtu);
+                int headerSize = encodeHeader(maxDataSize, packetIndex, packetSize, mHeaderBuffer, 0);
+                buffer.put(mHeaderBuffer, 0, headerSize);
+
+                if (packetIndex > 0) {
+                    readData(getDataOffset(maxDataSize, packetIndex), buffer, packetSize - headerSize);
+                }
+            }
+        }
+
+        return packetSize;
+    }
+
+    /**
+     * @return 送信するデータのサイズ
+     */
+    protected int getDataSize() {
+        return mData.length;
+    }
+
+    /**
+     * 送信するデータのdataOffsetからlengthバイトをbufferに読み込む
+     */
+    protected void readData(int dataOffset, byte[] buffer, int offset, int length) throws IOException {
+        System.arraycopy(mData, dataOffset, buffer, offset, length);
+    }
+
+    /**
+     * 送信するデータのdataOffsetからlengthバイトをbufferの現在位置に読み込み、読み込んだ分だけpositionを進める
+     */
+    protected void readData(int dataOffset, ByteBuffer buffer, int length) throws IOException {
+        buffer.put(mData, dataOffset, length);
+    }
+
+    /**
+     * @return 書き込んだヘッダのサイズ
+     */
+    private int encodeHeader(int maxDataSize, int packetIndex, int packetSize, byte[] buffer, int offset) {
+        int ret = 0;
+        int packetCount = 1/*設定パケット*/ + getDataPacketCount(maxDataSize);
+        byte existNextPacket = packetIndex == (packetCount - 1) ? NotExistNextPacket : ExistNextPacket;
+
+        // 0-1バイト：メッセージID(ShortMax上限且つPeripheralからの送信順番を示すが値は循環する)
+        putShort(buffer, offset + IndexMessageID, mMessageId);
+
+        if (packetIndex == 0 || mProtocolVersion == ProtocolVersion1) {
+            // 2-5バイト：パケットサイズ、MTUサイズ以下の値が設定される
+            putInt(buffer, offset + IndexPacketSize, packetSize);
+
+            // 6-9バイト: パケットポジション、0は設定パケット、1以上の値が設定されている場合はデータパケット
+            putInt(buffer, offset + IndexPacketPosition, packetIndex);
+
+            if (packetIndex == 0) {
+                // 設定パケット
+                // 10-13バイト：パケット数(設定パケットも含む)
+                putInt(buffer, offset + IndexPacketCount, packetCount);
+
+                // 14-17バイト：データサイズ(IntMax上限)
+                putInt(buffer, offset + IndexDataSize, getDataSize());
+
+                if (mProtocolVersion >= ProtocolVersion2) {
+                    // 18バイト：プロトコルバージョン
+                    buffer[offset + IndexProtocolVersion] = (byte) mProtocolVersion;
+                }
+
+                ret = packetSize;
+            } else {
+                // 10バイト：次のパケットがあるかのフラグ、０：次パケットなし、１：次パケットあり
+                buffer[offset + IndexExistNextPacket] = existNextPacket;
+
+                ret = LengthDataPacketHeaderSize;
+            }
+        } else {
+            // パケットポジション * 2 + 次のパケットがあるかのフラグ、データサイズ
+            ret = IndexPositionAndFlagV2;
+            ret += putVarint(buffer, offset + ret, ((long) packetIndex << 1) | existNextPacket);
+            ret += putVarint(buffer, offset + ret, getDataSize(maxDataSize, packetIndex, packetCount));
+        }
+
+        return ret;
+    }
+
+    private int getSettingPacketSize() {
+        return mProtocolVersion == ProtocolVersion1 ? LengthSettingPacketHeaderSize : LengthSettingPacketHeaderSizeV2;
+    }
+
+    private int getDataPacketHeaderSize(int packetIndex, int packetCount, int dataSize) {
+        int ret = LengthDataPacketHeaderSize;
+
+        if (mProtocolVersion >= ProtocolVersion2) {
+            ret = LengthMessageID + getVarintSize(((long) packetIndex << 1) | (packetIndex == (packetCount - 1) ? NotExistNextPacket : ExistNextPacket)) + getVarintSize(dataSize);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return 最後以外のデータパケットに格納するデータサイズ
+     */
+    private int getMaxDataSize(int mtu) {
+        int ret = mtu - LengthDataPacketHeaderSize;
+
+        if (mProtocolVersion >= ProtocolVersion2) {
+            // ヘッダサイズはパケット数に依存し、パケット数はヘッダサイズに依存するので、収束するまで再計算
+            // (最後以外のパケットのデータサイズを揃えるため、最大のパケットポジションのヘッダサイズに合わせる)
+            int headerSize = LengthMessageID + 1 + getVarintSize(mtu);
+
+            while (true) {
+                ret = mtu - headerSize;
+                if (ret <= 0) {
+                    throw new IllegalArgumentException("mtu is too small: " + mtu);
+                }
+
+                int dataPacketCount = getDataPacketCount(ret);
+                int tempHeaderSize = LengthMessageID + getVarintSize(((long) dataPacketCount << 1) | ExistNextPacket) + getVarintSize(ret);
+                if (tempHeaderSize <= headerSize) {
+                    break;
+                }
+                headerSize = tempHeaderSize;
+            }
+        } else if (ret <= 0) {
+            throw new IllegalArgumentException("mtu is too small: " + mtu);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return データパケット数(データサイズをmaxDataSizeで割った値の切り上げ、IntMax付近のデータサイズでも桁あふれしない)
+     */
+    private int getDataPacketCount(int maxDataSize) {
+        int dataSize = getDataSize();
+        return dataSize / maxDataSize + (dataSize % maxDataSize == 0 ? 0 : 1);
+    }
+
+    private int getDataSize(int maxDataSize, int packetIndex, int packetCount) {
+        return packetIndex < (packetCount - 1) ?
+                maxDataSize :   //  次のパケットが存在するので最大量
+                getDataSize() - (packetCount - 2) * maxDataSize;   // 最後のパケットなので残り全て
+    }
+
+    private int getDataOffset(int maxDataSize, int packetIndex) {
+        // packetIndexには設定パケット分も数に含まれているのでデータとしては1引算
+        return (packetIndex - 1) * maxDataSize;
+    }
+}
@@ -0,0 +1,238 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 受信データ全体を保持せず、先頭から連続して揃ったデータをその都度リスナーに通知する
+ * 順番が前後したパケットはウィンドウ(パケット数)の範囲だけ保持するので、メッセージサイズに関わらず使用メモリは一定
+ * ウィンドウを超えて先行するパケットはAddPacketResultOutOfWindowで破棄するので、再送で補うこと
+ */
+public class BleStreamReceiveDataProvider extends BleReceiveDataProvider {
+    public static final int AddPacketResultOutOfWindow = -7;
+    public static final int DefaultWindowPacketCount = 64;
+
+    public interface OnReceiveDataChunkListener {
+        /**
+         * @param data 通知中のみ有効(通知後に再利用される)ので、保持する場合はコピーすること
+         */
+        void onReceiveDataChunk(short messageId, byte[] data, int offset, int length);
+
+        void onReceiveDataFinish(short messageId);
+    }
+
+    private OnReceiveDataChunkListener mDataChunkListener;
+    private final int mWindowPacketCount;
+    private byte[][] mWindowSlots;
+    // -1: 空き
+    private int[] mWindowSlotSizes;
+    // 次にリスナーに通知するパケットポジション
+    private int mNextPosition = 1;
+    private long mDeliveredDataSize = 0;
+    private boolean mReceiveDataFailed = false;
+
+    public BleStreamReceiveDataProvider(OnReceiveDataChunkListener listener) {
+        this(listener, DefaultWindowPacketCount);
+    }
+
+    public BleStreamReceiveDataProvider(OnReceiveDataChunkListener listener, int windowPacketCount) {
+        if (windowPacketCount <= 0) {
+            throw new IllegalArgumentException("windowPacketCount <= 0");
+        }
+
+        mDataChunkListener = listener;
+        mWindowPacketCount = windowPacketCount;
+
+        // データ全体のバッファは確保しないので、データサイズの上限なし
+        setMaxDataSize(Integer.MAX_VALUE);
+    }
+
+    public void setOnReceiveDataChunkListener(OnReceiveDataChunkListener listener) {
+        mDataChunkListener = listener;
+    }
+
+    /**
+     * @return リスナーに通知済みのデータサイズ
+     */
+    public long getDeliveredDataSize() {
+        return mDeliveredDataSize;
+    }
+
+    /**
+     * @return データパケットの合計サイズが設定パケットのデータサイズと一致せず、通知を継続できなくなった場合はtrue
+     * (以降のパケットはAddPacketResultInvalidPacket、onReceiveDataFinishは通知しない)
+     */
+    public boolean isFailed() {
+        return mReceiveDataFailed;
+    }
+
+    @Override
+    protected void prepareDataBuffer() {
+        // データ全体のバッファは確保せず、ウィンドウ分だけ用意(各スロットは必要になった時点で確保)
+        mWindowSlots = new byte[mWindowPacketCount][];
+        mWindowSlotSizes = new int[mWindowPacketCount];
+        for (int i = 0; i < mWindowPacketCount; i++) {
+            mWindowSlotSizes[i] = -1;
+        }
+
+        if (mDataPacketCount == 0) {
+            // データサイズ0のメッセージは設定パケットのみで完了
+            OnReceiveDataChunkListener listener = mDataChunkListener;
+            if (listener != null) {
+                listener.onReceiveDataFinish(mMessageId);
+            }
+        }
+    }
+
+    @Override
+    protected int reservePacket(byte[] packetData) {
+        int ret = AddPacketResultOutOfWindow;
+
+        if (getReservedPacketCount() < mWindowPacketCount) {
+            ret = super.reservePacket(packetData);
+        }
+
+        return ret;
+    }
+
+    @Override
+    protected int storeDataPacket(int packetPosition, byte existNextPacket, byte[] packetData, int dataStartPosition, int dataSize) {
+        int ret = AddPacketResultInvalidPacket;
+        boolean validSize = true;
+
+        if (existNextPacket == NotExistNextPacket) {
+            validSize = packetPosition == mDataPacketCount;
+        } else {
+            // 最後以外のパケットは全て同じサイズ
+            if (mPayloadSize == 0) {
+                mPayloadSize = dataSize;
+            }
+            validSize = mPayloadSize == dataSize;
+        }
+
+        if (mReceiveDataFailed || !validSize) {
+            // 処理なし(AddPacketResultInvalidPacket)
+        } else if (packetPosition < mNextPosition || (packetPosition < mNextPosition + mWindowPacketCount && mWindowSlotSizes[packetPosition % mWindowPacketCount] >= 0)) {
+            // 通知済み、もしくはウィンドウに保持済み
+            ret = AddPacketResultDuplicated;
+        } else if (packetPosition >= mNextPosition + mWindowPacketCount) {
+            ret = AddPacketResultOutOfWindow;
+        } else if (packetPosition == mNextPosition) {
+            // 順番通りなのでコピーせずにそのまま通知し、続きがウィンドウにあればまとめて通知
+            ret = deliver(packetData, dataStartPosition, dataSize);
+            if (ret == AddPacketResultSuccess) {
+                mReceivedPacketCount++;
+            }
+
+            while (ret == AddPacketResultSuccess && !mReceiveDataFinish) {
+                int slotIndex = mNextPosition % mWindowPacketCount;
+                int slotSize = mWindowSlotSizes[slotIndex];
+
+                if (slotSize < 0) {
+                    break;
+                }
+                mWindowSlotSizes[slotIndex] = -1;
+                ret = deliver(mWindowSlots[slotIndex], 0, slotSize);
+            }
+        } else {
+            // 先行して届いたパケットはウィンドウに保持
+            int slotIndex = packetPosition % mWindowPacketCount;
+            byte[] slot = mWindowSlots[slotIndex];
+
+            if (slot == null || slot.length < dataSize) {
+                slot = mWindowSlots[slotIndex] = new byte[dataSize];
+            }
+            System.arraycopy(packetData, dataStartPosition, slot, 0, dataSize);
+            mWindowSlotSizes[slotIndex] = dataSize;
+            mReceivedPacketCount++;
+            ret = AddPacketResultSuccess;
+        }
+
+        return ret;
+    }
+
+    private int deliver(byte[] data, int offset, int length) {
+        int ret = AddPacketResultInvalidPacket;
+
+        if (mDeliveredDataSize + length <= mDataSize) {
+            ret = AddPacketResultSuccess;
+            mNextPosition++;
+            mDeliveredDataSize += length;
+
+            OnReceiveDataChunkListener listener = mDataChunkListener;
+            if (listener != null && length > 0) {
+                listener.onReceiveDataChunk(mMessageId, data, offset, length);
+            }
+
+            if (mNextPosition > mDataPacketCount) {
+                if (mDeliveredDataSize == mDataSize) {
+                    mReceiveDataFinish = true;
+
+                    if (listener != null) {
+                        listener.onReceiveDataFinish(mMessageId);
+                    }
+                } else {
+                    ret = AddPacketResultInvalidPacket;
+                }
+            }
+        }
+
+        if (ret != AddPacketResultSuccess) {
+            // 通知できないパケットより先に進めずウィンドウが止まったままになるので、メッセージを失敗させる
+            mReceiveDataFailed = true;
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return 未受信のデータパケットポジションの範囲一覧(再送要求用)、設定パケット未受信の場合はnull、失敗した場合は空
+     */
+    @Override
+    public List<PacketRange> getMissingPositions() {
+        List<PacketRange> ret = null;
+
+        if (mWindowSlotSizes != null) {
+            ret = new ArrayList<>();
+
+            if (!mReceiveDataFinish && !mReceiveDataFailed) {
+                int startPosition = 0;
+                int endPosition = Math.min(mDataPacketCount, mNextPosition + mWindowPacketCount - 1);
+
+                for (int position = mNextPosition; position <= endPosition; position++) {
+                    if (mWindowSlotSizes[position % mWindowPacketCount] < 0) {
+                        if (startPosition == 0) {
+                            startPosition = position;
+                        }
+                    } else if (startPosition != 0) {
+                        ret.add(new PacketRange(startPosition, position - 1));
+                        startPosition = 0;
+                    }
+                }
+
+                if (startPosition != 0 || endPosition < mDataPacketCount) {
+                    ret.add(new PacketRange(startPosition != 0 ? startPosition : endPosition + 1, mDataPacketCount));
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return データは保持していないので常にnull
+     */
+    @Override
+    public byte[] getData() {
+        return null;
+    }
+
+    /**
+     * @return データは保持していないので常にnull
+     */
+    @Override
+    public ByteBuffer getDataBuffer() {
+        return null;
+    }
+}
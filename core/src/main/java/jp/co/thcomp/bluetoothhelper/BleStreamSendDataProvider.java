@@ -0,0 +1,204 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * データ全体をメモリに保持せず、パケット要求時に必要な範囲だけInputStream/FileChannel/メモリマップから読み込む
+ * (データサイズは設定パケットの都合でIntMax上限)
+ * <p>
+ * InputStreamの場合は先頭から順番にしかパケットを作成できない(再送などで前のパケットを要求するとIOException)
+ * FileChannel、メモリマップの場合は任意の順番でパケットを作成可能
+ */
+public class BleStreamSendDataProvider extends BleSendDataProvider {
+    private static final int StreamReadBufferSize = 512;
+
+    private final int mDataSize;
+    private InputStream mInputStream;
+    private long mStreamPosition = 0;
+    private byte[] mStreamReadBuffer;
+    private FileChannel mFileChannel;
+    private long mFileChannelOffset;
+    private ByteBuffer mWrapBuffer;
+    private ByteBuffer mMappedBuffer;
+
+    /**
+     * @param stream   先頭からdataSizeバイトを送信
+     * @param dataSize
+     */
+    public BleStreamSendDataProvider(InputStream stream, int dataSize, int protocolVersion) {
+        this(stream, dataSize, protocolVersion, BleMessageIdAllocator.getDefault());
+    }
+
+    public BleStreamSendDataProvider(InputStream stream, int dataSize, int protocolVersion, BleMessageIdAllocator allocator) {
+        super(protocolVersion, allocator);
+
+        if (stream == null) {
+            throw new NullPointerException("stream == null");
+        }
+        if (dataSize < 0) {
+            throw new IllegalArgumentException("dataSize < 0");
+        }
+
+        mInputStream = stream;
+        mDataSize = dataSize;
+    }
+
+    /**
+     * @param channel 現在位置から末尾までを送信
+     */
+    public BleStreamSendDataProvider(FileChannel channel, int protocolVersion) throws IOException {
+        this(channel, channel.position(), channel.size() - channel.position(), protocolVersion);
+    }
+
+    /**
+     * @param channel
+     * @param offset  送信するデータのファイル内の開始位置
+     * @param size    送信するデータのサイズ(IntMax上限)
+     */
+    public BleStreamSendDataProvider(FileChannel channel, long offset, long size, int protocolVersion) {
+        this(channel, offset, size, protocolVersion, BleMessageIdAllocator.getDefault());
+    }
+
+    public BleStreamSendDataProvider(FileChannel channel, long offset, long size, int protocolVersion, BleMessageIdAllocator allocator) {
+        super(protocolVersion, allocator);
+
+        if (channel == null) {
+            throw new NullPointerException("channel == null");
+        }
+        if (offset < 0 || size < 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("offset = " + offset + ", size = " + size);
+        }
+
+        mFileChannel = channel;
+        mFileChannelOffset = offset;
+        mDataSize = (int) size;
+    }
+
+    /**
+     * @param mappedBuffer positionからlimitまでを送信
+     */
+    public BleStreamSendDataProvider(MappedByteBuffer mappedBuffer, int protocolVersion) {
+        this(mappedBuffer, protocolVersion, BleMessageIdAllocator.getDefault());
+    }
+
+    public BleStreamSendDataProvider(MappedByteBuffer mappedBuffer, int protocolVersion, BleMessageIdAllocator allocator) {
+        super(protocolVersion, allocator);
+
+        if (mappedBuffer == null) {
+            throw new NullPointerException("mappedBuffer == null");
+        }
+
+        mMappedBuffer = mappedBuffer.slice();
+        mDataSize = mMappedBuffer.remaining();
+    }
+
+    /**
+     * @param channel 現在位置から末尾までをメモリマップして送信
+     */
+    public static BleStreamSendDataProvider mapFile(FileChannel channel, int protocolVersion) throws IOException {
+        long position = channel.position();
+        return new BleStreamSendDataProvider(channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position), protocolVersion);
+    }
+
+    /**
+     * @return データはメモリに保持していないので常にnull
+     */
+    @Override
+    public byte[] getData() {
+        return null;
+    }
+
+    @Override
+    protected int getDataSize() {
+        return mDataSize;
+    }
+
+    @Override
+    protected void readData(int dataOffset, byte[] buffer, int offset, int length) throws IOException {
+        if (mInputStream != null) {
+            seekStream(dataOffset);
+
+            for (int readSize = 0; readSize < length; ) {
+                int tempReadSize = mInputStream.read(buffer, offset + readSize, length - readSize);
+                if (tempReadSize < 0) {
+                    throw new EOFException("stream ends at " + mStreamPosition);
+                }
+                readSize += tempReadSize;
+                mStreamPosition += tempReadSize;
+            }
+        } else if (mFileChannel != null) {
+            if (mWrapBuffer == null || mWrapBuffer.array() != buffer) {
+                mWrapBuffer = ByteBuffer.wrap(buffer);
+            }
+            mWrapBuffer.limit(offset + length).position(offset);
+            readFileChannel(dataOffset, mWrapBuffer);
+        } else {
+            ByteBuffer source = mMappedBuffer.duplicate();
+            source.position(dataOffset);
+            source.get(buffer, offset, length);
+        }
+    }
+
+    @Override
+    protected void readData(int dataOffset, ByteBuffer buffer, int length) throws IOException {
+        if (mInputStream != null) {
+            if (mStreamReadBuffer == null) {
+                mStreamReadBuffer = new byte[StreamReadBufferSize];
+            }
+
+            for (int readSize = 0; readSize < length; ) {
+                int tempReadSize = Math.min(length - readSize, mStreamReadBuffer.length);
+                readData(dataOffset + readSize, mStreamReadBuffer, 0, tempReadSize);
+                buffer.put(mStreamReadBuffer, 0, tempReadSize);
+                readSize += tempReadSize;
+            }
+        } else if (mFileChannel != null) {
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + length);
+            try {
+                readFileChannel(dataOffset, buffer);
+            } finally {
+                buffer.limit(limit);
+            }
+        } else {
+            ByteBuffer source = mMappedBuffer.duplicate();
+            source.limit(dataOffset + length).position(dataOffset);
+            buffer.put(source);
+        }
+    }
+
+    private void seekStream(int dataOffset) throws IOException {
+        if (dataOffset < mStreamPosition) {
+            throw new IOException("cannot rewind stream: position = " + mStreamPosition + ", requested = " + dataOffset);
+        }
+
+        while (mStreamPosition < dataOffset) {
+            long skipSize = mInputStream.skip(dataOffset - mStreamPosition);
+            if (skipSize <= 0) {
+                // skip未対応のストリームは読み捨て
+                if (mInputStream.read() < 0) {
+                    throw new EOFException("stream ends at " + mStreamPosition);
+                }
+                skipSize = 1;
+            }
+            mStreamPosition += skipSize;
+        }
+    }
+
+    private void readFileChannel(int dataOffset, ByteBuffer buffer) throws IOException {
+        long position = mFileChannelOffset + dataOffset;
+
+        while (buffer.hasRemaining()) {
+            int readSize = mFileChannel.read(buffer, position);
+            if (readSize < 0) {
+                throw new EOFException("file ends at " + position);
+            }
+            position += readSize;
+        }
+    }
+}
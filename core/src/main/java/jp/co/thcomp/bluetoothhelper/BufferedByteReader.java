@@ -0,0 +1,460 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 同一ストリームに対して都度生成されても、読み過ぎたデータはストリーム単位のリングバッファに保持され、次の読み込みで利用される
+ * ストリーム毎に独立してロックするので、複数ソケットを並列に読み込める
+ * <p>
+ * 保持しているデータは次の場合に解放される
+ * ・close、releaseStoredByteBuffer、releaseAllStoredByteBufferの呼び出し
+ * ・ストリームの読み込みでIOExceptionが発生した場合(切断されたソケット等)
+ * ・ストリームが参照されなくなった場合(disconnectを経由せずに破棄されたソケット等)
+ * また、ストリーム毎・全体の保持サイズの上限を超える場合はIOExceptionとなる
+ */
+class BufferedByteReader extends InputStream {
+    public static final int DefaultMaxStoredByteBufferSize = 16 * 1024 * 1024;
+    public static final long DefaultMaxTotalStoredByteBufferSize = 64L * 1024 * 1024;
+
+    private static final int ReadBufferSize = 1024;
+    private static final ConcurrentHashMap<StreamKey, StoredByteBuffer> sStoredByteBufferMap = new ConcurrentHashMap<StreamKey, StoredByteBuffer>();
+    private static final ReferenceQueue<InputStream> sStreamReferenceQueue = new ReferenceQueue<InputStream>();
+    private static final AtomicLong sTotalStoredByteBufferSize = new AtomicLong();
+    private static volatile int sMaxStoredByteBufferSize = DefaultMaxStoredByteBufferSize;
+    private static volatile long sMaxTotalStoredByteBufferSize = DefaultMaxTotalStoredByteBufferSize;
+
+    /**
+     * ストリーム毎に保持するデータの上限(readLineで区切り文字が見つからないまま、これを超えるとIOException)
+     */
+    public static void setMaxStoredByteBufferSize(int maxStoredSize) {
+        if (maxStoredSize <= 0) {
+            throw new IllegalArgumentException("maxStoredSize <= 0");
+        }
+
+        sMaxStoredByteBufferSize = maxStoredSize;
+    }
+
+    /**
+     * 全ストリームで保持するバッファの合計の上限(これを超えてバッファを拡張する場合はIOException)
+     */
+    public static void setMaxTotalStoredByteBufferSize(long maxTotalStoredSize) {
+        if (maxTotalStoredSize <= 0) {
+            throw new IllegalArgumentException("maxTotalStoredSize <= 0");
+        }
+
+        sMaxTotalStoredByteBufferSize = maxTotalStoredSize;
+    }
+
+    /**
+     * 全ストリームで保持しているバッファの合計サイズ(未使用の容量を含む)
+     */
+    public static long getTotalStoredByteBufferSize() {
+        expungeStaleStreams();
+        return sTotalStoredByteBufferSize.get();
+    }
+
+    public static void releaseStoredByteBuffer(InputStream targetStream) {
+        StoredByteBuffer storedBuffer = sStoredByteBufferMap.remove(new StreamKey(targetStream, null));
+
+        if (storedBuffer != null) {
+            storedBuffer.release();
+        }
+        expungeStaleStreams();
+    }
+
+    public static void releaseAllStoredByteBuffer() {
+        for (StreamKey streamKey : sStoredByteBufferMap.keySet()) {
+            StoredByteBuffer storedBuffer = sStoredByteBufferMap.remove(streamKey);
+
+            if (storedBuffer != null) {
+                storedBuffer.release();
+            }
+        }
+        expungeStaleStreams();
+    }
+
+    static boolean hasStoredByteBuffer(InputStream targetStream) {
+        return sStoredByteBufferMap.containsKey(new StreamKey(targetStream, null));
+    }
+
+    static int getStoredByteBufferCount() {
+        expungeStaleStreams();
+        return sStoredByteBufferMap.size();
+    }
+
+    private static StoredByteBuffer getStoredByteBuffer(InputStream targetStream) {
+        expungeStaleStreams();
+
+        StoredByteBuffer ret = sStoredByteBufferMap.get(new StreamKey(targetStream, null));
+
+        if (ret == null) {
+            StoredByteBuffer newBuffer = new StoredByteBuffer();
+
+            ret = sStoredByteBufferMap.putIfAbsent(new StreamKey(targetStream, sStreamReferenceQueue), newBuffer);
+            if (ret == null) {
+                ret = newBuffer;
+            } else {
+                newBuffer.release();
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * 参照されなくなったストリームのデータを解放
+     */
+    private static void expungeStaleStreams() {
+        for (Reference<? extends InputStream> streamKey; (streamKey = sStreamReferenceQueue.poll()) != null; ) {
+            StoredByteBuffer storedBuffer = sStoredByteBufferMap.remove(streamKey);
+
+            if (storedBuffer != null) {
+                storedBuffer.release();
+            }
+        }
+    }
+
+    private InputStream mInputStream;
+    private StoredByteBuffer mStoredBuffer;
+
+    public BufferedByteReader(InputStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("stream == null");
+        }
+
+        mInputStream = stream;
+        mStoredBuffer = getStoredByteBuffer(stream);
+    }
+
+    @Override
+    public void close() throws IOException {
+        releaseStoredByteBuffer(mInputStream);
+        mInputStream.close();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int ret = -1;
+        StoredByteBuffer storedBuffer = lockStoredBuffer();
+        ByteRingBuffer ringBuffer = storedBuffer.mRingBuffer;
+
+        try {
+            if (ringBuffer.isEmpty()) {
+                ret = mInputStream.read();
+            } else {
+                ret = ringBuffer.read();
+            }
+        } catch (IOException e) {
+            releaseOnError(storedBuffer, e);
+            throw e;
+        } finally {
+            storedBuffer.unlock();
+        }
+
+        return ret;
+    }
+
+    /**
+     * 保持しているデータがあればそこから、なければストリームから直接読み込む
+     * (保持しているデータとストリームのデータを1回の呼び出しで連結しないので、ソケットのデータ待ちでブロックしない)
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (buffer == null) {
+            throw new NullPointerException("buffer == null");
+        }
+        if (offset < 0 || length < 0 || length > buffer.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int ret = 0;
+
+        if (length > 0) {
+            StoredByteBuffer storedBuffer = lockStoredBuffer();
+            ByteRingBuffer ringBuffer = storedBuffer.mRingBuffer;
+
+            try {
+                if (ringBuffer.isEmpty()) {
+                    ret = mInputStream.read(buffer, offset, length);
+                } else {
+                    ret = ringBuffer.read(buffer, offset, length);
+                }
+            } catch (IOException e) {
+                releaseOnError(storedBuffer, e);
+                throw e;
+            } finally {
+                storedBuffer.unlock();
+            }
+        }
+
+        return ret;
+    }
+
+    @Override
+    public long skip(long length) throws IOException {
+        long ret = 0;
+
+        if (length > 0) {
+            StoredByteBuffer storedBuffer = lockStoredBuffer();
+            ByteRingBuffer ringBuffer = storedBuffer.mRingBuffer;
+
+            try {
+                if (ringBuffer.isEmpty()) {
+                    ret = mInputStream.skip(length);
+                } else {
+                    ret = ringBuffer.skip((int) Math.min(length, Integer.MAX_VALUE));
+                }
+            } catch (IOException e) {
+                releaseOnError(storedBuffer, e);
+                throw e;
+            } finally {
+                storedBuffer.unlock();
+            }
+        }
+
+        return ret;
+    }
+
+    @Override
+    public int available() throws IOException {
+        long ret = 0;
+        StoredByteBuffer storedBuffer = lockStoredBuffer();
+        ByteRingBuffer ringBuffer = storedBuffer.mRingBuffer;
+
+        try {
+            ret = (long) ringBuffer.size() + mInputStream.available();
+        } catch (IOException e) {
+            releaseOnError(storedBuffer, e);
+            throw e;
+        } finally {
+            storedBuffer.unlock();
+        }
+
+        return (int) Math.min(ret, Integer.MAX_VALUE);
+    }
+
+    public byte[] readLine(byte[] lineDelimiter) throws IOException {
+        byte[] ret = null;
+
+        DelimiterMatcher matcher = new DelimiterMatcher(lineDelimiter);
+
+        StoredByteBuffer storedBuffer = lockStoredBuffer();
+        ByteRingBuffer ringBuffer = storedBuffer.mRingBuffer;
+
+        try {
+            // 読み込み済みのデータは再走査せず、新たに読み込んだ分だけを検索
+            int delimiterPosition = matcher.find(ringBuffer);
+
+            while (delimiterPosition < 0) {
+                if (storedBuffer.fill(mInputStream, Math.max(ReadBufferSize, ringBuffer.capacity() - ringBuffer.size())) <= 0) {
+                    break;
+                }
+                delimiterPosition = matcher.find(ringBuffer);
+            }
+
+            if (delimiterPosition >= 0) {
+                // delimiterを削除し、その後ろに未だデータがあれば、保持
+                ret = new byte[delimiterPosition];
+                ringBuffer.read(ret, 0, delimiterPosition);
+                ringBuffer.skip(lineDelimiter.length);
+            }
+        } catch (IOException e) {
+            releaseOnError(storedBuffer, e);
+            throw e;
+        } finally {
+            storedBuffer.unlock();
+        }
+
+        return ret;
+    }
+
+    /**
+     * 長さ付きフレームを1つ読み込む(readLine等で読み過ぎたデータがあれば、その続きから読み込む)
+     *
+     * @see LengthPrefixedFrame#readFrame(InputStream, int, int)
+     */
+    public byte[] readFrame(int headerType, int maxFrameSize) throws IOException {
+        byte[] ret = null;
+
+        StoredByteBuffer storedBuffer = lockStoredBuffer();
+
+        try {
+            ret = LengthPrefixedFrame.readFrame(this, headerType, maxFrameSize);
+        } finally {
+            storedBuffer.unlock();
+        }
+
+        return ret;
+    }
+
+    /**
+     * ストリームのデータを保持するバッファをロックして取得(解放済みの場合は新たに取得し直す)
+     */
+    private StoredByteBuffer lockStoredBuffer() {
+        while (true) {
+            StoredByteBuffer storedBuffer = mStoredBuffer;
+
+            storedBuffer.lock();
+            if (!storedBuffer.isReleased()) {
+                return storedBuffer;
+            }
+            storedBuffer.unlock();
+
+            mStoredBuffer = getStoredByteBuffer(mInputStream);
+        }
+    }
+
+    private void releaseOnError(StoredByteBuffer storedBuffer, IOException e) {
+        if (e instanceof StoredByteBufferOverflowException) {
+            // 区切り文字が見つからないまま上限を超えたデータは破棄
+            if (((StoredByteBufferOverflowException) e).isStoredDataDiscarded()) {
+                storedBuffer.mRingBuffer.clear();
+            }
+        } else if (!(e instanceof InterruptedIOException)) {
+            // ストリームが切断・クローズされているので、保持しているデータも不要
+            releaseStoredByteBuffer(mInputStream);
+        }
+    }
+
+    private static final class StreamKey extends WeakReference<InputStream> {
+        private final int mHashCode;
+
+        StreamKey(InputStream stream, ReferenceQueue<InputStream> queue) {
+            super(stream, queue);
+            mHashCode = System.identityHashCode(stream);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            boolean ret = (this == obj);
+
+            if (!ret && obj instanceof StreamKey) {
+                InputStream stream = get();
+                ret = (stream != null && stream == ((StreamKey) obj).get());
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * ストリーム毎のリングバッファと、全体の保持サイズへの計上
+     * 読み込み中(ロック中)に解放が要求された場合は、アンロック時に解放する
+     */
+    private static final class StoredByteBuffer {
+        private final ReentrantLock mLock = new ReentrantLock();
+        private final ByteRingBuffer mRingBuffer = new ByteRingBuffer(ReadBufferSize);
+        private volatile boolean mReleased = false;
+        private boolean mDiscarded = false;
+        private int mAccountedCapacity;
+
+        StoredByteBuffer() {
+            mAccountedCapacity = mRingBuffer.capacity();
+            sTotalStoredByteBufferSize.addAndGet(mAccountedCapacity);
+        }
+
+        boolean isReleased() {
+            return mReleased;
+        }
+
+        void lock() {
+            mLock.lock();
+        }
+
+        void unlock() {
+            if (mLock.getHoldCount() == 1 && !mReleased) {
+                // 長い行等で拡張したバッファは、データが減った時点で縮小
+                if (mRingBuffer.capacity() > ReadBufferSize && mRingBuffer.size() <= mRingBuffer.capacity() / 4) {
+                    mRingBuffer.trimToSize(ReadBufferSize);
+                    sTotalStoredByteBufferSize.addAndGet(mRingBuffer.capacity() - mAccountedCapacity);
+                    mAccountedCapacity = mRingBuffer.capacity();
+                }
+            }
+
+            mLock.unlock();
+            discardIfReleased();
+        }
+
+        void release() {
+            mReleased = true;
+            discardIfReleased();
+        }
+
+        /**
+         * 上限を確認した上で、ストリームから末尾に直接読み込む(ロック中に呼び出すこと)
+         */
+        int fill(InputStream stream, int length) throws IOException {
+            int size = mRingBuffer.size();
+            int maxStoredSize = sMaxStoredByteBufferSize;
+
+            if (size >= maxStoredSize) {
+                throw new StoredByteBufferOverflowException("stored data exceeds " + maxStoredSize + " bytes per stream", true);
+            }
+
+            length = Math.min(length, maxStoredSize - size);
+
+            int growth = mRingBuffer.getRequiredCapacity(size + length) - mRingBuffer.capacity();
+            if (growth > 0) {
+                long maxTotalStoredSize = sMaxTotalStoredByteBufferSize;
+
+                if (sTotalStoredByteBufferSize.addAndGet(growth) > maxTotalStoredSize) {
+                    sTotalStoredByteBufferSize.addAndGet(-growth);
+                    throw new StoredByteBufferOverflowException("stored data of all streams exceeds " + maxTotalStoredSize + " bytes", false);
+                }
+                mAccountedCapacity += growth;
+            }
+
+            return mRingBuffer.fill(stream, length);
+        }
+
+        private void discardIfReleased() {
+            if (mReleased && !mLock.isHeldByCurrentThread() && mLock.tryLock()) {
+                try {
+                    if (!mDiscarded) {
+                        mDiscarded = true;
+                        mRingBuffer.clear();
+                        mRingBuffer.trimToSize(1);
+                        sTotalStoredByteBufferSize.addAndGet(-mAccountedCapacity);
+                        mAccountedCapacity = 0;
+                    }
+                } finally {
+                    mLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 読み過ぎたデータを保持するサイズが上限を超えた(readLineがnullを返す場合の区別用)
+     */
+    static final class StoredByteBufferOverflowException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean mDiscardStoredData;
+
+        StoredByteBufferOverflowException(String message, boolean discardStoredData) {
+            super(message);
+            mDiscardStoredData = discardStoredData;
+        }
+
+        /**
+         * @return 接続毎の上限を超えたため保持していたデータを破棄した場合はtrue、全接続の合計が上限を超えた(データは保持)場合はfalse
+         */
+        boolean isStoredDataDiscarded() {
+            return mDiscardStoredData;
+        }
+    }
+}
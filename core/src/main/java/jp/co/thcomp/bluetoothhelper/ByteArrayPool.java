@@ -0,0 +1,130 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.util.ArrayDeque;
+
+/**
+ * サイズクラス(2の累乗)毎のバイト配列プール
+ * 返却されなかった配列はGCで回収されるだけなので、返却は必須ではない
+ * 同じ配列を二重に返却しないこと(2つの利用者に同じ配列が貸し出される)
+ */
+public class ByteArrayPool {
+    public static final int MinSizeClass = 256;
+    public static final int MaxSizeClass = 64 * 1024;
+    public static final int DefaultMaxPooledCountPerSizeClass = 16;
+
+    private static ByteArrayPool sDefaultPool;
+
+    public static synchronized ByteArrayPool getDefault() {
+        if (sDefaultPool == null) {
+            sDefaultPool = new ByteArrayPool(DefaultMaxPooledCountPerSizeClass);
+        }
+
+        return sDefaultPool;
+    }
+
+    /**
+     * @return size以上で最小のサイズクラス、MaxSizeClassを超える場合はMaxSizeClass
+     */
+    public static int getSizeClass(int size) {
+        int ret = MinSizeClass;
+
+        while (ret < size && ret < MaxSizeClass) {
+            ret <<= 1;
+        }
+
+        return ret;
+    }
+
+    private final ArrayDeque<byte[]>[] mPooledArrays;
+    private final int mMaxPooledCountPerSizeClass;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ByteArrayPool(int maxPooledCountPerSizeClass) {
+        if (maxPooledCountPerSizeClass < 0) {
+            throw new IllegalArgumentException("maxPooledCountPerSizeClass < 0");
+        }
+
+        mMaxPooledCountPerSizeClass = maxPooledCountPerSizeClass;
+        mPooledArrays = new ArrayDeque[Integer.numberOfTrailingZeros(MaxSizeClass) - Integer.numberOfTrailingZeros(MinSizeClass) + 1];
+        for (int i = 0; i < mPooledArrays.length; i++) {
+            mPooledArrays[i] = new ArrayDeque<byte[]>();
+        }
+    }
+
+    /**
+     * @return 長さがgetSizeClass(size)の配列、内容は不定
+     * sizeがMaxSizeClassを超える場合はプールしない長さsizeの配列
+     */
+    public byte[] acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0");
+        }
+
+        byte[] ret = null;
+
+        if (size <= MaxSizeClass) {
+            int sizeClass = getSizeClass(size);
+            ArrayDeque<byte[]> pooledArrays = mPooledArrays[getSizeClassIndex(sizeClass)];
+
+            synchronized (pooledArrays) {
+                ret = pooledArrays.pollFirst();
+            }
+
+            if (ret == null) {
+                ret = new byte[sizeClass];
+            }
+        } else {
+            ret = new byte[size];
+        }
+
+        return ret;
+    }
+
+    /**
+     * acquireで取得した配列を返却、サイズクラスに一致しない配列やプールが満杯の場合は破棄
+     */
+    public void release(byte[] array) {
+        if (array != null && isSizeClass(array.length)) {
+            ArrayDeque<byte[]> pooledArrays = mPooledArrays[getSizeClassIndex(array.length)];
+
+            synchronized (pooledArrays) {
+                if (pooledArrays.size() < mMaxPooledCountPerSizeClass) {
+                    pooledArrays.offerFirst(array);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return プールしている配列の合計バイト数
+     */
+    public long getPooledSize() {
+        long ret = 0;
+
+        for (ArrayDeque<byte[]> pooledArrays : mPooledArrays) {
+            synchronized (pooledArrays) {
+                for (byte[] array : pooledArrays) {
+                    ret += array.length;
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    public void clear() {
+        for (ArrayDeque<byte[]> pooledArrays : mPooledArrays) {
+            synchronized (pooledArrays) {
+                pooledArrays.clear();
+            }
+        }
+    }
+
+    private static boolean isSizeClass(int length) {
+        return length >= MinSizeClass && length <= MaxSizeClass && Integer.bitCount(length) == 1;
+    }
+
+    private static int getSizeClassIndex(int sizeClass) {
+        return Integer.numberOfTrailingZeros(sizeClass) - Integer.numberOfTrailingZeros(MinSizeClass);
+    }
+}
@@ -0,0 +1,210 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 拡張可能なバイトのリングバッファ
+ * 先頭(head)からの読み出し、末尾(tail)への書き込みともに償却O(1)
+ * スレッドセーフではないので、利用側で同期すること
+ */
+class ByteRingBuffer {
+    private static final int DefaultInitialCapacity = 1024;
+    private static final int MaxCapacity = 1 << 30;
+
+    private byte[] mBuffer;
+    private int mHead = 0;
+    private int mSize = 0;
+
+    public ByteRingBuffer() {
+        this(DefaultInitialCapacity);
+    }
+
+    public ByteRingBuffer(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("initialCapacity <= 0");
+        }
+
+        mBuffer = new byte[roundUpToPowerOfTwo(initialCapacity)];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * sizeバイトを保持するために必要な容量(現在の容量より小さくはならない)
+     */
+    public int getRequiredCapacity(int size) {
+        if (size < 0 || size > MaxCapacity) {
+            throw new OutOfMemoryError("required capacity: " + size);
+        }
+
+        return Math.max(mBuffer.length, roundUpToPowerOfTwo(size));
+    }
+
+    /**
+     * 保持しているデータを残したまま、容量をminCapacity(保持しているデータがそれより多い場合はそのサイズ)まで縮小
+     */
+    public void trimToSize(int minCapacity) {
+        int capacity = roundUpToPowerOfTwo(Math.max(mSize, Math.max(1, minCapacity)));
+
+        if (capacity < mBuffer.length) {
+            byte[] newBuffer = new byte[capacity];
+
+            peek(0, newBuffer, 0, mSize);
+            mBuffer = newBuffer;
+            mHead = 0;
+        }
+    }
+
+    /**
+     * 先頭からindex番目のバイトを取得(読み出し位置は進めない)
+     */
+    public byte get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+        }
+
+        return mBuffer[(mHead + index) & (mBuffer.length - 1)];
+    }
+
+    /**
+     * 先頭の1バイトを読み出し
+     *
+     * @return 0-255、データがない場合は-1
+     */
+    public int read() {
+        int ret = -1;
+
+        if (mSize > 0) {
+            ret = mBuffer[mHead] & 0xFF;
+            mHead = (mHead + 1) & (mBuffer.length - 1);
+            mSize--;
+        }
+
+        return ret;
+    }
+
+    /**
+     * 先頭から最大lengthバイトを読み出し
+     *
+     * @return 読み出したバイト数
+     */
+    public int read(byte[] data, int offset, int length) {
+        int ret = peek(0, data, offset, length);
+        skip(ret);
+        return ret;
+    }
+
+    /**
+     * 先頭からindex番目以降を最大lengthバイトコピー(読み出し位置は進めない)
+     *
+     * @return コピーしたバイト数
+     */
+    public int peek(int index, byte[] data, int offset, int length) {
+        if (index < 0 || offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int ret = Math.max(0, Math.min(length, mSize - index));
+        if (ret > 0) {
+            int start = (mHead + index) & (mBuffer.length - 1);
+            int firstLength = Math.min(ret, mBuffer.length - start);
+
+            System.arraycopy(mBuffer, start, data, offset, firstLength);
+            if (firstLength < ret) {
+                System.arraycopy(mBuffer, 0, data, offset + firstLength, ret - firstLength);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * 先頭から最大lengthバイトを破棄
+     *
+     * @return 破棄したバイト数
+     */
+    public int skip(int length) {
+        int ret = Math.max(0, Math.min(length, mSize));
+
+        mHead = (mHead + ret) & (mBuffer.length - 1);
+        mSize -= ret;
+        if (mSize == 0) {
+            mHead = 0;
+        }
+
+        return ret;
+    }
+
+    /**
+     * 末尾にlengthバイトを追加、容量が不足する場合は拡張
+     */
+    public void write(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ensureCapacity(mSize + length);
+
+        int tail = (mHead + mSize) & (mBuffer.length - 1);
+        int firstLength = Math.min(length, mBuffer.length - tail);
+
+        System.arraycopy(data, offset, mBuffer, tail, firstLength);
+        if (firstLength < length) {
+            System.arraycopy(data, offset + firstLength, mBuffer, 0, length - firstLength);
+        }
+        mSize += length;
+    }
+
+    /**
+     * ストリームから最大lengthバイトを末尾に直接読み込み、容量が不足する場合は拡張
+     *
+     * @return 読み込んだバイト数、ストリームの終端に達した場合は-1
+     */
+    public int fill(InputStream stream, int length) throws IOException {
+        if (length < 0) {
+            throw new IllegalArgumentException("length < 0");
+        }
+
+        ensureCapacity(mSize + length);
+
+        int tail = (mHead + mSize) & (mBuffer.length - 1);
+        int ret = stream.read(mBuffer, tail, Math.min(length, mBuffer.length - tail));
+        if (ret > 0) {
+            mSize += ret;
+        }
+
+        return ret;
+    }
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    private void ensureCapacity(int requiredSize) {
+        int requiredCapacity = getRequiredCapacity(requiredSize);
+
+        if (requiredCapacity > mBuffer.length) {
+            byte[] newBuffer = new byte[requiredCapacity];
+
+            peek(0, newBuffer, 0, mSize);
+            mBuffer = newBuffer;
+            mHead = 0;
+        }
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,72 @@
+package jp.co.thcomp.bluetoothhelper;
+
+/**
+ * 区切り文字の逐次検索(Knuth-Morris-Pratt)
+ * 一致途中の状態を保持するので、データが追加される毎に新しく届いたバイトだけを検索すればよく、検索済みのデータを再走査しない
+ * 検索位置は先頭からの位置で保持するので、検索対象の先頭からデータを読み出した後は新たに生成して検索すること
+ */
+class DelimiterMatcher {
+    private final byte[] mDelimiter;
+    private final int[] mFailure;
+    private int mMatchedLength = 0;
+    private int mScannedSize = 0;
+
+    public DelimiterMatcher(byte[] delimiter) {
+        if (delimiter == null) {
+            throw new NullPointerException("delimiter == null");
+        }
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("delimiter.length == 0");
+        }
+
+        mDelimiter = delimiter;
+        mFailure = new int[delimiter.length];
+
+        // mFailure[i]: delimiter[0..i]の接頭辞かつ接尾辞となる最長の(delimiter[0..i]自身を除く)長さ
+        for (int i = 1, matchedLength = 0; i < delimiter.length; i++) {
+            while (matchedLength > 0 && delimiter[i] != delimiter[matchedLength]) {
+                matchedLength = mFailure[matchedLength - 1];
+            }
+            if (delimiter[i] == delimiter[matchedLength]) {
+                matchedLength++;
+            }
+            mFailure[i] = matchedLength;
+        }
+    }
+
+    /**
+     * 前回検索した位置以降を検索
+     *
+     * @return 先頭からの区切り文字の位置、見つからない場合は-1
+     */
+    public int find(ByteRingBuffer data) {
+        int ret = -1;
+
+        for (int size = data.size(); mScannedSize < size; ) {
+            if (match(data.get(mScannedSize++))) {
+                ret = mScannedSize - mDelimiter.length;
+                break;
+            }
+        }
+
+        return ret;
+    }
+
+    private boolean match(byte value) {
+        boolean ret = false;
+
+        while (mMatchedLength > 0 && value != mDelimiter[mMatchedLength]) {
+            mMatchedLength = mFailure[mMatchedLength - 1];
+        }
+        if (value == mDelimiter[mMatchedLength]) {
+            mMatchedLength++;
+        }
+        if (mMatchedLength == mDelimiter.length) {
+            // 連続して検索できるように、一致した区切り文字の直後の状態にする
+            mMatchedLength = 0;
+            ret = true;
+        }
+
+        return ret;
+    }
+}
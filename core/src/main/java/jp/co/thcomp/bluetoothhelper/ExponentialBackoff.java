@@ -0,0 +1,61 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.util.Random;
+
+/**
+ * 再試行間隔の計算(指数バックオフ + ジッタ)
+ * n回目の再試行の間隔は min(maxDelayMS, initialDelayMS * multiplier^n) から最大jitterの割合だけランダムに短縮した値
+ * 複数の端末が同時に再試行を繰り返さないよう、ジッタで間隔を分散させる
+ */
+public class ExponentialBackoff {
+    public static final long DefaultInitialDelayMS = 250;
+    public static final long DefaultMaxDelayMS = 8000;
+    public static final double DefaultMultiplier = 2.0;
+    public static final double DefaultJitter = 0.5;
+
+    private final long mInitialDelayMS;
+    private final long mMaxDelayMS;
+    private final double mMultiplier;
+    private final double mJitter;
+
+    public ExponentialBackoff() {
+        this(DefaultInitialDelayMS, DefaultMaxDelayMS, DefaultMultiplier, DefaultJitter);
+    }
+
+    /**
+     * @param jitter 0(ジッタなし)-1(0から上限まで分散)
+     */
+    public ExponentialBackoff(long initialDelayMS, long maxDelayMS, double multiplier, double jitter) {
+        if (initialDelayMS < 0 || maxDelayMS < initialDelayMS) {
+            throw new IllegalArgumentException("initialDelayMS: " + initialDelayMS + ", maxDelayMS: " + maxDelayMS);
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier < 1");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter: " + jitter);
+        }
+
+        mInitialDelayMS = initialDelayMS;
+        mMaxDelayMS = maxDelayMS;
+        mMultiplier = multiplier;
+        mJitter = jitter;
+    }
+
+    /**
+     * @return ジッタを含まない再試行間隔の上限
+     */
+    public long getMaxDelayMS(int retryCount) {
+        if (retryCount < 0) {
+            throw new IllegalArgumentException("retryCount < 0");
+        }
+
+        double ret = mInitialDelayMS * Math.pow(mMultiplier, retryCount);
+        return ret >= mMaxDelayMS ? mMaxDelayMS : (long) ret;
+    }
+
+    public long getDelayMS(int retryCount, Random random) {
+        long maxDelayMS = getMaxDelayMS(retryCount);
+        return maxDelayMS - (long) (maxDelayMS * mJitter * random.nextDouble());
+    }
+}
@@ -0,0 +1,164 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * ストリーム(RFCOMM等)向けの長さ付きフレーム
+ * ヘッダにペイロード長を格納するので、受信側は区切り文字を検索せずに1フレーム分をまとめて読み込める
+ * <p>
+ * HeaderTypeVarint: ペイロード長(varint, 1-5byte) + ペイロード
+ * HeaderTypeFixed: ペイロード長(4byte, big endian) + ペイロード
+ */
+public class LengthPrefixedFrame {
+    public static final int HeaderTypeVarint = 0;
+    public static final int HeaderTypeFixed = 1;
+
+    public static final int DefaultMaxFrameSize = 16 * 1024 * 1024;
+
+    private static final int LengthFixedHeader = 4;
+
+    private LengthPrefixedFrame() {
+    }
+
+    public static int getHeaderSize(int headerType, int frameSize) {
+        checkFrameSize(frameSize);
+
+        int ret = 0;
+
+        switch (headerType) {
+            case HeaderTypeVarint:
+                ret = BleDataProvider.getVarintSize(frameSize);
+                break;
+            case HeaderTypeFixed:
+                ret = LengthFixedHeader;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown header type: " + headerType);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return 書き込んだバイト数
+     */
+    public static int putHeader(byte[] buffer, int index, int headerType, int frameSize) {
+        int ret = getHeaderSize(headerType, frameSize);
+
+        if (index < 0 || index + ret > buffer.length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", header size: " + ret + ", buffer size: " + buffer.length);
+        }
+
+        if (headerType == HeaderTypeVarint) {
+            BleDataProvider.putVarint(buffer, index, frameSize);
+        } else {
+            BleDataProvider.putInt(buffer, index, frameSize);
+        }
+
+        return ret;
+    }
+
+    public static byte[] createHeader(int headerType, int frameSize) {
+        byte[] ret = new byte[getHeaderSize(headerType, frameSize)];
+        putHeader(ret, 0, headerType, frameSize);
+        return ret;
+    }
+
+    public static void writeFrame(OutputStream stream, int headerType, byte[] data, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        stream.write(createHeader(headerType, length));
+        stream.write(data, offset, length);
+    }
+
+    /**
+     * @return ペイロード長、ヘッダを読み込む前にストリームの終端に達した場合は-1
+     * @throws EOFException ヘッダの途中でストリームの終端に達した場合
+     * @throws IOException  ヘッダが不正な場合
+     */
+    public static int readFrameSize(InputStream stream, int headerType) throws IOException {
+        if (headerType != HeaderTypeVarint && headerType != HeaderTypeFixed) {
+            throw new IllegalArgumentException("unknown header type: " + headerType);
+        }
+
+        long ret = -1;
+        int readByte = stream.read();
+
+        if (readByte >= 0) {
+            if (headerType == HeaderTypeVarint) {
+                ret = readByte & 0x7F;
+                for (int i = 1; (readByte & 0x80) != 0; i++) {
+                    if (i == BleDataProvider.MaxLengthVarint) {
+                        throw new IOException("malformed frame header");
+                    }
+
+                    readByte = readHeaderByte(stream);
+                    ret |= ((long) (readByte & 0x7F)) << (7 * i);
+                }
+            } else {
+                ret = readByte;
+                for (int i = 1; i < LengthFixedHeader; i++) {
+                    ret = (ret << 8) | readHeaderByte(stream);
+                }
+            }
+
+            if (ret > Integer.MAX_VALUE) {
+                throw new IOException("malformed frame header: frame size " + ret);
+            }
+        }
+
+        return (int) ret;
+    }
+
+    /**
+     * ヘッダを読み込み、1フレーム分のペイロードをまとめて読み込む
+     *
+     * @return ペイロード、フレームの先頭でストリームの終端に達した場合はnull
+     * @throws EOFException フレームの途中でストリームの終端に達した場合
+     * @throws IOException  ヘッダが不正な場合、ペイロード長がmaxFrameSizeを超える場合
+     */
+    public static byte[] readFrame(InputStream stream, int headerType, int maxFrameSize) throws IOException {
+        byte[] ret = null;
+        int frameSize = readFrameSize(stream, headerType);
+
+        if (frameSize > maxFrameSize) {
+            throw new IOException("frame size " + frameSize + " exceeds " + maxFrameSize);
+        }
+
+        if (frameSize >= 0) {
+            ret = new byte[frameSize];
+
+            for (int readSize = 0; readSize < frameSize; ) {
+                int size = stream.read(ret, readSize, frameSize - readSize);
+
+                if (size < 0) {
+                    throw new EOFException("end of stream in frame: " + readSize + "/" + frameSize);
+                }
+                readSize += size;
+            }
+        }
+
+        return ret;
+    }
+
+    private static int readHeaderByte(InputStream stream) throws IOException {
+        int ret = stream.read();
+
+        if (ret < 0) {
+            throw new EOFException("end of stream in frame header");
+        }
+
+        return ret;
+    }
+
+    private static void checkFrameSize(int frameSize) {
+        if (frameSize < 0) {
+            throw new IllegalArgumentException("frameSize < 0");
+        }
+    }
+}
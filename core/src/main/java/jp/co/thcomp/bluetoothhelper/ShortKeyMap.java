@@ -0,0 +1,160 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import java.util.Arrays;
+
+/**
+ * short値をキーとするオープンアドレス法のハッシュテーブル(キーのボクシングなし)
+ */
+class ShortKeyMap<V> {
+    private static final int DefaultCapacity = 16;
+    private static final float LoadFactor = 0.5f;
+
+    private short[] mKeys;
+    private Object[] mValues;
+    private int mSize = 0;
+    private int mThreshold;
+
+    public ShortKeyMap() {
+        this(DefaultCapacity);
+    }
+
+    public ShortKeyMap(int initialCapacity) {
+        int capacity = DefaultCapacity;
+        while (capacity * LoadFactor < initialCapacity) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(short key) {
+        V ret = null;
+        int mask = mKeys.length - 1;
+
+        for (int index = hash(key) & mask; mValues[index] != null; index = (index + 1) & mask) {
+            if (mKeys[index] == key) {
+                ret = (V) mValues[index];
+                break;
+            }
+        }
+
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(short key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        V ret = null;
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+
+        for (; mValues[index] != null; index = (index + 1) & mask) {
+            if (mKeys[index] == key) {
+                ret = (V) mValues[index];
+                break;
+            }
+        }
+
+        mKeys[index] = key;
+        mValues[index] = value;
+
+        if (ret == null && ++mSize > mThreshold) {
+            rehash(mKeys.length << 1);
+        }
+
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(short key) {
+        V ret = null;
+        int mask = mKeys.length - 1;
+
+        for (int index = hash(key) & mask; mValues[index] != null; index = (index + 1) & mask) {
+            if (mKeys[index] == key) {
+                ret = (V) mValues[index];
+                mValues[index] = null;
+                mSize--;
+                shiftBackward(index);
+                break;
+            }
+        }
+
+        return ret;
+    }
+
+    public void clear() {
+        Arrays.fill(mValues, null);
+        mSize = 0;
+    }
+
+    public short keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        return (V) mValues[index];
+    }
+
+    /**
+     * @return keyAt/valueAtで走査する際の上限、valueAtがnullのスロットは未使用
+     */
+    public int capacity() {
+        return mKeys.length;
+    }
+
+    private void shiftBackward(int emptyIndex) {
+        // 削除した位置以降の衝突チェーンを詰めて、探索が途切れないようにする
+        int mask = mKeys.length - 1;
+
+        for (int index = (emptyIndex + 1) & mask; mValues[index] != null; index = (index + 1) & mask) {
+            int homeIndex = hash(mKeys[index]) & mask;
+
+            if (((index - homeIndex) & mask) >= ((index - emptyIndex) & mask)) {
+                mKeys[emptyIndex] = mKeys[index];
+                mValues[emptyIndex] = mValues[index];
+                mValues[index] = null;
+                emptyIndex = index;
+            }
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        short[] oldKeys = mKeys;
+        Object[] oldValues = mValues;
+
+        allocate(newCapacity);
+
+        int mask = newCapacity - 1;
+        for (int i = 0, size = oldKeys.length; i < size; i++) {
+            if (oldValues[i] != null) {
+                int index = hash(oldKeys[i]) & mask;
+                while (mValues[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                mKeys[index] = oldKeys[i];
+                mValues[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new short[capacity];
+        mValues = new Object[capacity];
+        mThreshold = (int) (capacity * LoadFactor);
+    }
+
+    private static int hash(short key) {
+        // メッセージIDは連番なので、下位ビットに偏らないよう撹拌
+        int h = (key & 0xFFFF) * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,856 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+public class BleDataProviderTest {
+    private static final String[] TestJsons = {
+            "{\"test\": [{\"test1\": 1,\"test2\": \"2\"},{\"test1\": 3,\"test2\": \"4\"}],\"test2\": {\"test3\": \"three\",\"test4\": 4}}",
+            "{\"test\":[{\"test1\": 1,\"test2\": \"2\"},{\"test1\": 3,\"test2\": \"4\"},{\"test1\": 3,\"test2\": \"4\"},{\"test1\": 5,\"test2\": \"6\"},{\"test1\": 7,\"test2\": \"eight\"}],\"test2\": {\"test3\": \"three\",\"test4\": 4},\"test3\": {\"test4\": \"four\",\"test5\": 5}}",
+            "{\"test\": [{\"test1\": 11,\"test2\": \"12\"},{\"test1\": 13,\"test2\": \"14\"}],\"test2\": {\"test3\": \"thirteen\",\"test4\": 14}}",
+    };
+    private static final int DefaultMTU = 20;
+    private static final int[] TestMTUs = {20, 21, 22};
+
+    @Test
+    public void test1() throws Exception {
+        /*
+            正常系試験
+                BleSendDataProviderにJSON渡して、BleReceiveDataProviderで元に戻す
+         */
+        for (String testJson : TestJsons) {
+            for (int mtu : TestMTUs) {
+                BleSendDataProvider sendDataProvider = new BleSendDataProvider(testJson.getBytes());
+                BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+                byte[] buffer = null;
+
+                for (int i = 0; (buffer = sendDataProvider.getPacket(mtu, i)) != null; i++) {
+                    Assert.assertFalse(recvDataProvider.isCompleted());
+                    recvDataProvider.addPacket(buffer);
+                }
+
+                Assert.assertTrue(recvDataProvider.isCompleted());
+                Assert.assertArrayEquals(recvDataProvider.getData(), testJson.getBytes());
+            }
+        }
+    }
+
+    @Test
+    public void test2() throws Exception {
+        /*
+            データ混在(最初に設定パケット)
+         */
+        for (int i = 0, size = TestJsons.length; i < (size - 1); i++) {
+            for (int mtu : TestMTUs) {
+                BleSendDataProvider[] sendDataProviders = new BleSendDataProvider[]{
+                        new BleSendDataProvider(TestJsons[i].getBytes()),
+                        new BleSendDataProvider(TestJsons[i + 1].getBytes())};
+                BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+                byte[] buffer = null;
+
+                for (int j = 0; j < 200; j++) {
+                    if (j == 0) {
+                        // 設定パケットのときだけ、addPacketする順番を変更し、間違った設定パケットを指定されるようにする
+                        for (int k = 0; k < sendDataProviders.length; k++) {
+                            buffer = sendDataProviders[k].getPacket(mtu, j);
+                            if (buffer != null) {
+                                Assert.assertFalse(recvDataProvider.isCompleted());
+                                recvDataProvider.addPacket(buffer);
+                            }
+                        }
+                    } else {
+                        for (int k = sendDataProviders.length - 1; k >= 0; k--) {
+                            buffer = sendDataProviders[k].getPacket(mtu, j);
+                            if (buffer != null) {
+                                if (sendDataProviders[k].getMessageId() == recvDataProvider.getMessageId()) {
+                                    Assert.assertFalse(recvDataProvider.isCompleted());
+                                }
+                                recvDataProvider.addPacket(buffer);
+                            }
+                        }
+                    }
+                }
+
+                Assert.assertTrue(recvDataProvider.isCompleted());
+                Assert.assertArrayEquals(recvDataProvider.getData(), TestJsons[i].getBytes());
+            }
+        }
+    }
+
+    @Test
+    public void test3() throws Exception {
+        /*
+            データ混在(最後に設定パケット)
+         */
+        for (int i = 0, size = TestJsons.length; i < (size - 1); i++) {
+            for (int mtu : TestMTUs) {
+                BleSendDataProvider[] sendDataProviders = new BleSendDataProvider[]{
+                        new BleSendDataProvider(TestJsons[i].getBytes()),
+                        new BleSendDataProvider(TestJsons[i + 1].getBytes())};
+                BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+                byte[] buffer = null;
+
+                for (int j = 200; j >= 0; j--) {
+                    if (j == 0) {
+                        // 設定パケットのときだけ、addPacketする順番を変更し、間違った設定パケットを指定されるようにする
+                        for (int k = 0; k < sendDataProviders.length; k++) {
+                            buffer = sendDataProviders[k].getPacket(mtu, j);
+                            if (buffer != null) {
+                                recvDataProvider.addPacket(buffer);
+                            }
+                        }
+                    } else {
+                        for (int k = sendDataProviders.length - 1; k >= 0; k--) {
+                            buffer = sendDataProviders[k].getPacket(mtu, j);
+                            if (buffer != null) {
+                                Assert.assertFalse(recvDataProvider.isCompleted());
+                                recvDataProvider.addPacket(buffer);
+                            }
+                        }
+                    }
+                }
+
+                int longestMessageIndex = 0;
+                int tempLongestMessageSize = 0;
+                for (int msgIndex = 0, msgIndexSize = sendDataProviders.length; msgIndex < msgIndexSize; msgIndex++) {
+                    if (tempLongestMessageSize < sendDataProviders[msgIndex].getData().length) {
+                        tempLongestMessageSize = sendDataProviders[msgIndex].getData().length;
+                        longestMessageIndex = msgIndex;
+                    }
+                }
+
+                Assert.assertTrue(recvDataProvider.isCompleted());
+                Assert.assertArrayEquals(recvDataProvider.getData(), TestJsons[i + longestMessageIndex].getBytes());
+            }
+        }
+    }
+
+    @Test
+    public void test4() throws Exception {
+        /*
+            encodePacketで呼び出し元のバッファに書き込んだ結果がgetPacketと一致すること
+         */
+        for (String testJson : TestJsons) {
+            for (int mtu : TestMTUs) {
+                BleSendDataProvider sendDataProvider = new BleSendDataProvider(testJson.getBytes());
+                byte[] arrayBuffer = new byte[mtu + 3];
+                ByteBuffer directBuffer = ByteBuffer.allocateDirect(mtu);
+                byte[] packet = null;
+                int packetIndex = 0;
+
+                for (; (packet = sendDataProvider.getPacket(mtu, packetIndex)) != null; packetIndex++) {
+                    int writeSize = sendDataProvider.encodePacket(mtu, packetIndex, arrayBuffer, 3);
+                    Assert.assertEquals(packet.length, writeSize);
+                    Assert.assertArrayEquals(packet, Arrays.copyOfRange(arrayBuffer, 3, 3 + writeSize));
+
+                    directBuffer.clear();
+                    writeSize = sendDataProvider.encodePacket(mtu, packetIndex, directBuffer);
+                    Assert.assertEquals(packet.length, writeSize);
+                    Assert.assertEquals(writeSize, directBuffer.position());
+                    byte[] directPacket = new byte[writeSize];
+                    directBuffer.flip();
+                    directBuffer.get(directPacket);
+                    Assert.assertArrayEquals(packet, directPacket);
+                }
+
+                Assert.assertEquals(sendDataProvider.getPacketCount(mtu), packetIndex);
+                Assert.assertEquals(0, sendDataProvider.encodePacket(mtu, packetIndex, arrayBuffer, 0));
+            }
+        }
+    }
+
+    @Test
+    public void test5() throws Exception {
+        /*
+            逆順で受信しても受信バッファに直接組み立てられ、getData/getDataBufferがコピーせずに返却すること
+         */
+        for (String testJson : TestJsons) {
+            for (int mtu : TestMTUs) {
+                BleSendDataProvider sendDataProvider = new BleSendDataProvider(testJson.getBytes());
+                BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+
+                recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 0));
+                for (int i = sendDataProvider.getPacketCount(mtu) - 1; i > 0; i--) {
+                    Assert.assertFalse(recvDataProvider.isCompleted());
+                    Assert.assertNull(recvDataProvider.getDataBuffer());
+                    Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, i)));
+                }
+
+                Assert.assertTrue(recvDataProvider.isCompleted());
+                Assert.assertArrayEquals(testJson.getBytes(), recvDataProvider.getData());
+                Assert.assertSame(recvDataProvider.getData(), recvDataProvider.getData());
+
+                ByteBuffer dataBuffer = recvDataProvider.getDataBuffer();
+                Assert.assertTrue(dataBuffer.isReadOnly());
+                Assert.assertEquals(testJson.getBytes().length, dataBuffer.remaining());
+            }
+        }
+    }
+
+    @Test
+    public void test6() throws Exception {
+        /*
+            複数メッセージのパケットを混在させてシャッフルしても、BleMessageReassemblerで全メッセージが組み立てられること
+         */
+        for (int mtu : TestMTUs) {
+            final HashMap<Short, byte[]> completedMessageMap = new HashMap<>();
+            BleMessageReassembler reassembler = new BleMessageReassembler(new BleMessageReassembler.OnMessageCompleteListener() {
+                @Override
+                public void onMessageComplete(short messageId, byte[] data) {
+                    Assert.assertNull(completedMessageMap.put(messageId, data));
+                }
+            });
+            ArrayList<byte[]> packetList = new ArrayList<>();
+            HashMap<Short, byte[]> sentMessageMap = new HashMap<>();
+
+            for (int i = 0; i < 100; i++) {
+                byte[] data = TestJsons[i % TestJsons.length].getBytes();
+                BleSendDataProvider sendDataProvider = new BleSendDataProvider(data);
+                sentMessageMap.put(sendDataProvider.getMessageId(), data);
+
+                for (int j = 0, size = sendDataProvider.getPacketCount(mtu); j < size; j++) {
+                    packetList.add(sendDataProvider.getPacket(mtu, j));
+                }
+            }
+            Collections.shuffle(packetList, new Random(mtu));
+
+            for (byte[] packet : packetList) {
+                Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, reassembler.addPacket(packet));
+            }
+
+            Assert.assertEquals(0, reassembler.getInFlightMessageCount());
+            Assert.assertEquals(sentMessageMap.size(), completedMessageMap.size());
+            for (Short messageId : sentMessageMap.keySet()) {
+                Assert.assertArrayEquals(sentMessageMap.get(messageId), completedMessageMap.get(messageId));
+            }
+        }
+    }
+
+    @Test
+    public void test7() throws Exception {
+        /*
+            重複パケットは数えずに、未受信パケットの範囲を正しく返却すること
+         */
+        byte[] data = new byte[9 * 200];
+        new Random(0).nextBytes(data);
+        int mtu = 20;
+        BleSendDataProvider sendDataProvider = new BleSendDataProvider(data);
+        BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+        Assert.assertNull(recvDataProvider.getMissingPositions());
+
+        recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 0));
+        for (int i = 1; i <= 200; i++) {
+            if ((i < 5) || (i > 10 && i < 150) || (i > 150 && i < 200)) {
+                Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, i)));
+                Assert.assertEquals(BleReceiveDataProvider.AddPacketResultDuplicated, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, i)));
+            }
+        }
+
+        List<BleReceiveDataProvider.PacketRange> missingPositions = recvDataProvider.getMissingPositions();
+        Assert.assertEquals(3, missingPositions.size());
+        Assert.assertEquals(5, missingPositions.get(0).startPosition);
+        Assert.assertEquals(10, missingPositions.get(0).endPosition);
+        Assert.assertEquals(150, missingPositions.get(1).startPosition);
+        Assert.assertEquals(150, missingPositions.get(1).endPosition);
+        Assert.assertEquals(200, missingPositions.get(2).startPosition);
+        Assert.assertEquals(200, missingPositions.get(2).endPosition);
+        Assert.assertEquals(200 - 8, recvDataProvider.getReceivedPacketCount());
+
+        for (BleReceiveDataProvider.PacketRange missingRange : missingPositions) {
+            for (int i = missingRange.startPosition; i <= missingRange.endPosition; i++) {
+                Assert.assertFalse(recvDataProvider.isCompleted());
+                recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, i));
+            }
+        }
+
+        Assert.assertTrue(recvDataProvider.isCompleted());
+        Assert.assertTrue(recvDataProvider.getMissingPositions().isEmpty());
+        Assert.assertArrayEquals(data, recvDataProvider.getData());
+    }
+
+    @Test
+    public void test8() throws Exception {
+        /*
+            バージョン2のヘッダでシャッフルして受信しても元に戻り、MTU20ではバージョン1の6割程度のパケット数で済むこと
+         */
+        byte[] largeData = new byte[100000];
+        new Random(1).nextBytes(largeData);
+        byte[][] testDataArray = {new byte[0], TestJsons[0].getBytes(), TestJsons[1].getBytes(), largeData};
+        int[] testMTUs = {20, 23, 185, 247, 517};
+
+        for (byte[] testData : testDataArray) {
+            for (int mtu : testMTUs) {
+                BleSendDataProvider sendDataProvider = new BleSendDataProvider(testData, BleDataProvider.ProtocolVersion2);
+                BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+                ArrayList<byte[]> packetList = new ArrayList<>();
+
+                for (int i = 0, size = sendDataProvider.getPacketCount(mtu); i < size; i++) {
+                    byte[] packet = sendDataProvider.getPacket(mtu, i);
+                    Assert.assertTrue(packet.length <= mtu);
+                    packetList.add(packet);
+                }
+                Collections.shuffle(packetList, new Random(mtu));
+
+                for (byte[] packet : packetList) {
+                    Assert.assertFalse(recvDataProvider.isCompleted());
+                    Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(packet));
+                }
+
+                Assert.assertTrue(recvDataProvider.isCompleted());
+                Assert.assertEquals(BleDataProvider.ProtocolVersion2, recvDataProvider.getProtocolVersion());
+                Assert.assertArrayEquals(testData, recvDataProvider.getData());
+            }
+        }
+
+        int packetCountV1 = new BleSendDataProvider(largeData, BleDataProvider.ProtocolVersion1).getPacketCount(DefaultMTU);
+        int packetCountV2 = new BleSendDataProvider(largeData, BleDataProvider.ProtocolVersion2).getPacketCount(DefaultMTU);
+        Assert.assertTrue(packetCountV2 * 100 < packetCountV1 * 65);
+
+        // 未サポートのバージョンの設定パケットは受け付けない
+        byte[] settingPacket = new BleSendDataProvider(largeData, BleDataProvider.ProtocolVersion2).getPacket(DefaultMTU, 0);
+        settingPacket[settingPacket.length - 1] = (byte) (BleDataProvider.LatestProtocolVersion + 1);
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultUnsupportedVersion, new BleReceiveDataProvider().addPacket(settingPacket));
+        Assert.assertEquals(BleDataProvider.ProtocolVersion2, BleDataProvider.negotiateProtocolVersion(BleDataProvider.LatestProtocolVersion + 1));
+        Assert.assertEquals(BleDataProvider.ProtocolVersion1, BleDataProvider.negotiateProtocolVersion(BleDataProvider.ProtocolVersion1));
+    }
+
+    @Test
+    public void test9() throws Exception {
+        /*
+            InputStream/FileChannel/メモリマップから読み込みながらパケットを作成しても元に戻ること
+         */
+        byte[] data = new byte[50000];
+        new Random(2).nextBytes(data);
+        File tempFile = File.createTempFile("BleDataProviderTest", ".bin");
+        tempFile.deleteOnExit();
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        outputStream.write(data);
+        outputStream.close();
+
+        RandomAccessFile file = new RandomAccessFile(tempFile, "r");
+        FileChannel channel = file.getChannel();
+
+        try {
+            for (int protocolVersion = BleDataProvider.ProtocolVersion1; protocolVersion <= BleDataProvider.LatestProtocolVersion; protocolVersion++) {
+                for (int mtu : TestMTUs) {
+                    BleSendDataProvider[] sendDataProviders = {
+                            new BleStreamSendDataProvider(new ByteArrayInputStream(data), data.length, protocolVersion),
+                            new BleStreamSendDataProvider(channel, 0, channel.size(), protocolVersion),
+                            BleStreamSendDataProvider.mapFile(channel, protocolVersion),
+                    };
+
+                    for (BleSendDataProvider sendDataProvider : sendDataProviders) {
+                        BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+                        ByteBuffer directBuffer = ByteBuffer.allocateDirect(mtu);
+
+                        for (int i = 0, size = sendDataProvider.getPacketCount(mtu); i < size; i++) {
+                            byte[] packet;
+                            if ((i % 2) == 0) {
+                                packet = sendDataProvider.getPacket(mtu, i);
+                            } else {
+                                directBuffer.clear();
+                                sendDataProvider.encodePacket(mtu, i, directBuffer);
+                                directBuffer.flip();
+                                packet = new byte[directBuffer.remaining()];
+                                directBuffer.get(packet);
+                            }
+                            Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(packet));
+                        }
+
+                        Assert.assertTrue(recvDataProvider.isCompleted());
+                        Assert.assertArrayEquals(data, recvDataProvider.getData());
+                    }
+
+                    // InputStreamは巻き戻せない
+                    BleSendDataProvider streamSendDataProvider = sendDataProviders[0];
+                    try {
+                        streamSendDataProvider.getPacket(mtu, 1);
+                        Assert.fail();
+                    } catch (IllegalStateException e) {
+                        // 読み込み失敗はnull(パケットの終端)と区別して通知
+                    }
+                    try {
+                        streamSendDataProvider.encodePacket(mtu, 1, new byte[mtu], 0);
+                        Assert.fail();
+                    } catch (IOException e) {
+                        // 想定通り
+                    }
+
+                    // FileChannel/メモリマップは任意の順番で作成可能
+                    Assert.assertNotNull(sendDataProviders[1].getPacket(mtu, 1));
+                    Assert.assertNotNull(sendDataProviders[2].getPacket(mtu, 1));
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void test10() throws Exception {
+        /*
+            ストリーム受信ではウィンドウ内で順番が前後しても、先頭から順番にデータが通知されること
+         */
+        byte[] data = new byte[20000];
+        new Random(3).nextBytes(data);
+        final int windowPacketCount = 16;
+
+        for (int protocolVersion = BleDataProvider.ProtocolVersion1; protocolVersion <= BleDataProvider.LatestProtocolVersion; protocolVersion++) {
+            for (int mtu : TestMTUs) {
+                BleSendDataProvider sendDataProvider = new BleSendDataProvider(data, protocolVersion);
+                final ByteArrayOutputStream receivedStream = new ByteArrayOutputStream();
+                final boolean[] finished = {false};
+                BleStreamReceiveDataProvider recvDataProvider = new BleStreamReceiveDataProvider(new BleStreamReceiveDataProvider.OnReceiveDataChunkListener() {
+                    @Override
+                    public void onReceiveDataChunk(short messageId, byte[] data, int offset, int length) {
+                        Assert.assertFalse(finished[0]);
+                        receivedStream.write(data, offset, length);
+                    }
+
+                    @Override
+                    public void onReceiveDataFinish(short messageId) {
+                        finished[0] = true;
+                    }
+                }, windowPacketCount);
+
+                // ウィンドウ単位でシャッフル
+                int packetCount = sendDataProvider.getPacketCount(mtu);
+                recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 0));
+
+                for (int start = 1; start < packetCount; start += windowPacketCount) {
+                    ArrayList<Integer> positionList = new ArrayList<>();
+                    for (int i = start; i < Math.min(packetCount, start + windowPacketCount); i++) {
+                        positionList.add(i);
+                    }
+                    Collections.shuffle(positionList, new Random(start));
+
+                    for (int position : positionList) {
+                        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, position)));
+                    }
+
+                    // ウィンドウ内は全て揃ったので、ここまでのデータは全て通知済み
+                    Assert.assertEquals(receivedStream.size(), recvDataProvider.getDeliveredDataSize());
+                    if (!recvDataProvider.isCompleted()) {
+                        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultDuplicated, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, start)));
+                        Assert.assertEquals(1, recvDataProvider.getMissingPositions().size());
+                        Assert.assertEquals(start + windowPacketCount, recvDataProvider.getMissingPositions().get(0).startPosition);
+                    }
+                }
+
+                Assert.assertTrue(recvDataProvider.isCompleted());
+                Assert.assertTrue(finished[0]);
+                Assert.assertNull(recvDataProvider.getData());
+                Assert.assertArrayEquals(data, receivedStream.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void test11() throws Exception {
+        /*
+            ストリーム受信でウィンドウを超えて先行するパケットは破棄され、未受信範囲として返却されること
+         */
+        byte[] data = new byte[9 * 100];
+        new Random(4).nextBytes(data);
+        int mtu = 20;
+        BleSendDataProvider sendDataProvider = new BleSendDataProvider(data);
+        final ByteArrayOutputStream receivedStream = new ByteArrayOutputStream();
+        BleStreamReceiveDataProvider recvDataProvider = new BleStreamReceiveDataProvider(new BleStreamReceiveDataProvider.OnReceiveDataChunkListener() {
+            @Override
+            public void onReceiveDataChunk(short messageId, byte[] data, int offset, int length) {
+                receivedStream.write(data, offset, length);
+            }
+
+            @Override
+            public void onReceiveDataFinish(short messageId) {
+            }
+        }, 10);
+
+        recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 0));
+        Assert.assertEquals(BleStreamReceiveDataProvider.AddPacketResultOutOfWindow, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 11)));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 3)));
+        Assert.assertEquals(0, recvDataProvider.getDeliveredDataSize());
+
+        List<BleReceiveDataProvider.PacketRange> missingPositions = recvDataProvider.getMissingPositions();
+        Assert.assertEquals(2, missingPositions.size());
+        Assert.assertEquals(1, missingPositions.get(0).startPosition);
+        Assert.assertEquals(2, missingPositions.get(0).endPosition);
+        Assert.assertEquals(4, missingPositions.get(1).startPosition);
+        Assert.assertEquals(100, missingPositions.get(1).endPosition);
+
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 1)));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 2)));
+        Assert.assertEquals(9 * 3, recvDataProvider.getDeliveredDataSize());
+
+        for (int i = 4; i <= 100; i++) {
+            Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, i)));
+        }
+
+        Assert.assertTrue(recvDataProvider.isCompleted());
+        Assert.assertArrayEquals(data, receivedStream.toByteArray());
+    }
+
+    @Test
+    public void test12() throws Exception {
+        /*
+            複数スレッドから同時にメッセージIDを払い出しても重複せず、ShortMaxの次は0に循環すること
+         */
+        final BleMessageIdAllocator allocator = new BleMessageIdAllocator();
+        final boolean[] usedMessageIds = new boolean[Short.MAX_VALUE + 1];
+        Thread[] threads = new Thread[4];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < (Short.MAX_VALUE + 1) / 4; j++) {
+                        short messageId = new BleSendDataProvider(new byte[0], BleDataProvider.ProtocolVersion1, allocator).getMessageId();
+                        synchronized (usedMessageIds) {
+                            Assert.assertFalse(usedMessageIds[messageId]);
+                            usedMessageIds[messageId] = true;
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (boolean used : usedMessageIds) {
+            Assert.assertTrue(used);
+        }
+        Assert.assertEquals(0, allocator.nextMessageId());
+
+        BleMessageIdAllocator wrapAllocator = new BleMessageIdAllocator(Short.MAX_VALUE);
+        Assert.assertEquals(Short.MAX_VALUE, wrapAllocator.nextMessageId());
+        Assert.assertEquals(0, wrapAllocator.nextMessageId());
+    }
+
+    @Test
+    public void test13() throws Exception {
+        /*
+            パケット数・データサイズが負数または矛盾する設定パケットは受信バッファを用意せずに拒否し、
+            その後に正しい設定パケットを受け付けること
+         */
+        byte[] data = TestJsons[0].getBytes();
+        int mtu = 20;
+        BleSendDataProvider sendDataProvider = new BleSendDataProvider(data);
+        BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+        byte[] settingPacket = sendDataProvider.getPacket(mtu, 0);
+        int packetCount = BleDataProvider.getInt(settingPacket, BleDataProvider.IndexPacketCount);
+        int[][] invalidSettings = {
+                // {パケット数(設定パケットを含む), データサイズ}
+                {packetCount, -1},
+                {packetCount, Integer.MIN_VALUE},
+                {0, data.length},
+                {-1, data.length},
+                {Integer.MIN_VALUE, data.length},
+                {1, data.length},
+                {data.length + 2, data.length},
+                {2, 0},
+        };
+
+        for (int[] invalidSetting : invalidSettings) {
+            byte[] invalidSettingPacket = settingPacket.clone();
+            BleDataProvider.putInt(invalidSettingPacket, BleDataProvider.IndexPacketCount, invalidSetting[0]);
+            BleDataProvider.putInt(invalidSettingPacket, BleDataProvider.IndexDataSize, invalidSetting[1]);
+
+            Assert.assertEquals(BleReceiveDataProvider.AddPacketResultInvalidPacket, recvDataProvider.addPacket(invalidSettingPacket));
+            Assert.assertNull(recvDataProvider.getMissingPositions());
+        }
+
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(settingPacket));
+        for (int i = 1; i < packetCount; i++) {
+            Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, i)));
+        }
+        Assert.assertTrue(recvDataProvider.isCompleted());
+        Assert.assertArrayEquals(data, recvDataProvider.getData());
+
+        // データサイズ0のメッセージは設定パケットのみで完了
+        BleSendDataProvider emptySendDataProvider = new BleSendDataProvider(new byte[0]);
+        BleReceiveDataProvider emptyRecvDataProvider = new BleReceiveDataProvider();
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, emptyRecvDataProvider.addPacket(emptySendDataProvider.getPacket(mtu, 0)));
+        Assert.assertTrue(emptyRecvDataProvider.isCompleted());
+    }
+
+    @Test
+    public void test14() throws Exception {
+        /*
+            完了しないメッセージは最後のパケットから一定時間経過、または組み立て中のメッセージ数の上限を超えた時点で破棄され、
+            その後に届いたメッセージは組み立てられること
+         */
+        int mtu = 20;
+        final HashMap<Short, byte[]> completedMessageMap = new HashMap<>();
+        BleMessageReassembler reassembler = new BleMessageReassembler(new BleMessageReassembler.OnMessageCompleteListener() {
+            @Override
+            public void onMessageComplete(short messageId, byte[] data) {
+                Assert.assertNull(completedMessageMap.put(messageId, data));
+            }
+        });
+        BleSendDataProvider[] sendDataProviders = new BleSendDataProvider[4];
+        for (int i = 0; i < sendDataProviders.length; i++) {
+            sendDataProviders[i] = new BleSendDataProvider(TestJsons[i % TestJsons.length].getBytes());
+        }
+
+        // 一定時間経過で破棄
+        reassembler.setMessageTimeout(1000);
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, reassembler.addPacket(sendDataProviders[0].getPacket(mtu, 1), 0));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, reassembler.addPacket(sendDataProviders[1].getPacket(mtu, 1), 500));
+        Assert.assertEquals(2, reassembler.getInFlightMessageCount());
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, reassembler.addPacket(sendDataProviders[1].getPacket(mtu, 2), 1000));
+        Assert.assertEquals(1, reassembler.getInFlightMessageCount());
+        Assert.assertFalse(reassembler.isInFlight(sendDataProviders[0].getMessageId()));
+        Assert.assertTrue(reassembler.isInFlight(sendDataProviders[1].getMessageId()));
+
+        // 上限を超えた場合は最後のパケットが最も古いメッセージを破棄
+        reassembler.setMessageTimeout(0);
+        reassembler.setMaxInFlightMessageCount(2);
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, reassembler.addPacket(sendDataProviders[2].getPacket(mtu, 1), 5000));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, reassembler.addPacket(sendDataProviders[3].getPacket(mtu, 1), 6000));
+        Assert.assertEquals(2, reassembler.getInFlightMessageCount());
+        Assert.assertFalse(reassembler.isInFlight(sendDataProviders[1].getMessageId()));
+        Assert.assertTrue(reassembler.isInFlight(sendDataProviders[2].getMessageId()));
+        Assert.assertTrue(reassembler.isInFlight(sendDataProviders[3].getMessageId()));
+
+        for (int i = 0, size = sendDataProviders[3].getPacketCount(mtu); i < size; i++) {
+            reassembler.addPacket(sendDataProviders[3].getPacket(mtu, i), 7000);
+        }
+        Assert.assertEquals(1, reassembler.getInFlightMessageCount());
+        Assert.assertEquals(1, completedMessageMap.size());
+        Assert.assertArrayEquals(TestJsons[3 % TestJsons.length].getBytes(), completedMessageMap.get(sendDataProviders[3].getMessageId()));
+    }
+
+    @Test
+    public void test15() throws Exception {
+        /*
+            データを格納できないMTUはバージョンに関わらずIllegalArgumentException、
+            IntMax付近のデータサイズでもパケット数が桁あふれしないこと
+         */
+        int[] protocolVersions = {BleDataProvider.ProtocolVersion1, BleDataProvider.ProtocolVersion2};
+        int[][] tooSmallMTUs = {
+                {BleDataProvider.LengthDataPacketHeaderSize, 5, 0},
+                // バージョン2はメッセージID + 1バイトずつのvarint
+                {BleDataProvider.LengthMessageID + 2, 0},
+        };
+
+        for (int i = 0; i < protocolVersions.length; i++) {
+            int protocolVersion = protocolVersions[i];
+            BleSendDataProvider sendDataProvider = new BleSendDataProvider(TestJsons[0].getBytes(), protocolVersion);
+            for (int mtu : tooSmallMTUs[i]) {
+                try {
+                    sendDataProvider.getPacketCount(mtu);
+                    Assert.fail("protocolVersion: " + protocolVersion + ", mtu: " + mtu);
+                } catch (IllegalArgumentException e) {
+                }
+                try {
+                    sendDataProvider.getPacketSize(mtu, 1);
+                    Assert.fail("protocolVersion: " + protocolVersion + ", mtu: " + mtu);
+                } catch (IllegalArgumentException e) {
+                }
+            }
+        }
+
+        int mtu = 20;
+        BleSendDataProvider largeSendDataProvider = new BleStreamSendDataProvider(new ByteArrayInputStream(new byte[0]), Integer.MAX_VALUE, BleDataProvider.ProtocolVersion1);
+        int maxDataSize = mtu - BleDataProvider.LengthDataPacketHeaderSize;
+        int packetCount = 1 + Integer.MAX_VALUE / maxDataSize + (Integer.MAX_VALUE % maxDataSize == 0 ? 0 : 1);
+        Assert.assertEquals(packetCount, largeSendDataProvider.getPacketCount(mtu));
+        Assert.assertEquals(mtu, largeSendDataProvider.getPacketSize(mtu, 1));
+        Assert.assertEquals(BleDataProvider.LengthDataPacketHeaderSize + Integer.MAX_VALUE % maxDataSize, largeSendDataProvider.getPacketSize(mtu, packetCount - 1));
+    }
+
+    @Test
+    public void test16() throws Exception {
+        /*
+            ストリームからの読み込みに失敗した場合、getPacketはnull(パケットの終端)ではなく例外を投げること
+         */
+        int mtu = 20;
+        InputStream failStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("test");
+            }
+        };
+        BleSendDataProvider sendDataProvider = new BleStreamSendDataProvider(failStream, 100, BleDataProvider.ProtocolVersion1);
+
+        Assert.assertNotNull(sendDataProvider.getPacket(mtu, 0));
+        try {
+            sendDataProvider.getPacket(mtu, 1);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertNull(sendDataProvider.getPacket(mtu, sendDataProvider.getPacketCount(mtu)));
+    }
+
+    @Test
+    public void test17() throws Exception {
+        /*
+            次のパケットなしのフラグは最後のパケットポジションのみ、次のパケットありのフラグは最後以外のみ受け付けること
+         */
+        byte[] data = new byte[9 * 3];
+        new Random(17).nextBytes(data);
+        int mtu = 20;
+        BleSendDataProvider sendDataProvider = new BleSendDataProvider(data);
+        BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 0)));
+
+        byte[] firstPacket = sendDataProvider.getPacket(mtu, 1);
+        firstPacket[BleDataProvider.IndexExistNextPacket] = BleDataProvider.NotExistNextPacket;
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultInvalidPacket, recvDataProvider.addPacket(firstPacket));
+
+        byte[] lastPacket = sendDataProvider.getPacket(mtu, 3);
+        lastPacket[BleDataProvider.IndexExistNextPacket] = BleDataProvider.ExistNextPacket;
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultInvalidPacket, recvDataProvider.addPacket(lastPacket));
+        Assert.assertEquals(0, recvDataProvider.getReceivedPacketCount());
+
+        for (int i = 1; i <= 3; i++) {
+            Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, i)));
+        }
+        Assert.assertTrue(recvDataProvider.isCompleted());
+        Assert.assertArrayEquals(data, recvDataProvider.getData());
+    }
+
+    @Test
+    public void test18() throws Exception {
+        /*
+            データサイズが上限を超える設定パケットは受信バッファを確保せずに拒否すること
+            (データ全体を保持しないBleStreamReceiveDataProviderは上限なし)
+         */
+        int mtu = 20;
+        BleSendDataProvider largeSendDataProvider = new BleStreamSendDataProvider(new ByteArrayInputStream(new byte[0]), Integer.MAX_VALUE, BleDataProvider.ProtocolVersion1);
+        byte[] largeSettingPacket = largeSendDataProvider.getPacket(mtu, 0);
+
+        BleReceiveDataProvider recvDataProvider = new BleReceiveDataProvider();
+        Assert.assertEquals(BleReceiveDataProvider.DefaultMaxDataSize, recvDataProvider.getMaxDataSize());
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultInvalidPacket, recvDataProvider.addPacket(largeSettingPacket));
+        Assert.assertNull(recvDataProvider.getMissingPositions());
+
+        byte[] data = TestJsons[0].getBytes();
+        BleSendDataProvider sendDataProvider = new BleSendDataProvider(data);
+        recvDataProvider.setMaxDataSize(data.length - 1);
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultInvalidPacket, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 0)));
+        recvDataProvider.setMaxDataSize(data.length);
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 0)));
+
+        BleStreamReceiveDataProvider streamRecvDataProvider = new BleStreamReceiveDataProvider(null);
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, streamRecvDataProvider.addPacket(largeSettingPacket));
+    }
+
+    @Test
+    public void test19() throws Exception {
+        /*
+            最初のパケットとして届いた不正な設定パケットは組み立て中のメッセージとして残らず、
+            組み立て中のメッセージを押し出さないこと
+         */
+        int mtu = 20;
+        final HashMap<Short, byte[]> completedMessageMap = new HashMap<>();
+        BleMessageReassembler reassembler = new BleMessageReassembler(new BleMessageReassembler.OnMessageCompleteListener() {
+            @Override
+            public void onMessageComplete(short messageId, byte[] data) {
+                Assert.assertNull(completedMessageMap.put(messageId, data));
+            }
+        });
+        reassembler.setMaxInFlightMessageCount(1);
+
+        byte[] data = TestJsons[0].getBytes();
+        BleSendDataProvider sendDataProvider = new BleSendDataProvider(data);
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, reassembler.addPacket(sendDataProvider.getPacket(mtu, 0)));
+
+        Random random = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            // パケット数0の設定パケット
+            byte[] invalidSettingPacket = new byte[BleDataProvider.LengthSettingPacketHeaderSize];
+            BleDataProvider.putShort(invalidSettingPacket, BleDataProvider.IndexMessageID, (short) (sendDataProvider.getMessageId() + 1 + random.nextInt(Short.MAX_VALUE)));
+            BleDataProvider.putInt(invalidSettingPacket, BleDataProvider.IndexPacketSize, invalidSettingPacket.length);
+            BleDataProvider.putInt(invalidSettingPacket, BleDataProvider.IndexDataSize, random.nextInt(Integer.MAX_VALUE));
+            Assert.assertEquals(BleReceiveDataProvider.AddPacketResultInvalidPacket, reassembler.addPacket(invalidSettingPacket));
+        }
+
+        Assert.assertEquals(1, reassembler.getInFlightMessageCount());
+        Assert.assertTrue(reassembler.isInFlight(sendDataProvider.getMessageId()));
+
+        for (int i = 1, size = sendDataProvider.getPacketCount(mtu); i < size; i++) {
+            Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, reassembler.addPacket(sendDataProvider.getPacket(mtu, i)));
+        }
+        Assert.assertEquals(0, reassembler.getInFlightMessageCount());
+        Assert.assertArrayEquals(data, completedMessageMap.get(sendDataProvider.getMessageId()));
+    }
+
+    @Test
+    public void test20() throws Exception {
+        /*
+            BleStreamReceiveDataProviderはデータパケットの合計サイズが設定パケットのデータサイズと一致しない場合、
+            ウィンドウを止めたままにせずメッセージを失敗させ、完了を通知しないこと
+         */
+        byte[] data = new byte[9 * 3];
+        new Random(20).nextBytes(data);
+        int mtu = 20;
+        BleSendDataProvider sendDataProvider = new BleSendDataProvider(data);
+        final int[] finishCount = {0};
+        BleStreamReceiveDataProvider.OnReceiveDataChunkListener listener = new BleStreamReceiveDataProvider.OnReceiveDataChunkListener() {
+            @Override
+            public void onReceiveDataChunk(short messageId, byte[] data, int offset, int length) {
+            }
+
+            @Override
+            public void onReceiveDataFinish(short messageId) {
+                finishCount[0]++;
+            }
+        };
+
+        // データサイズより大きい: ウィンドウから通知する途中で失敗
+        byte[] smallSettingPacket = sendDataProvider.getPacket(mtu, 0);
+        BleDataProvider.putInt(smallSettingPacket, BleDataProvider.IndexDataSize, data.length - 7);
+        BleStreamReceiveDataProvider recvDataProvider = new BleStreamReceiveDataProvider(listener);
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(smallSettingPacket));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 3)));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 2)));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultInvalidPacket, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 1)));
+        Assert.assertTrue(recvDataProvider.isFailed());
+        Assert.assertFalse(recvDataProvider.isCompleted());
+        Assert.assertEquals(0, recvDataProvider.getMissingPositions().size());
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultInvalidPacket, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 3)));
+
+        // データサイズより小さい: 最後のパケットで失敗
+        byte[] largeSettingPacket = sendDataProvider.getPacket(mtu, 0);
+        BleDataProvider.putInt(largeSettingPacket, BleDataProvider.IndexDataSize, data.length + 3);
+        recvDataProvider = new BleStreamReceiveDataProvider(listener);
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(largeSettingPacket));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 1)));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 2)));
+        Assert.assertEquals(BleReceiveDataProvider.AddPacketResultInvalidPacket, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, 3)));
+        Assert.assertTrue(recvDataProvider.isFailed());
+        Assert.assertFalse(recvDataProvider.isCompleted());
+        Assert.assertEquals(data.length, recvDataProvider.getDeliveredDataSize());
+        Assert.assertEquals(0, finishCount[0]);
+
+        // 一致する場合は完了
+        recvDataProvider = new BleStreamReceiveDataProvider(listener);
+        for (int i = 0; i <= 3; i++) {
+            Assert.assertEquals(BleReceiveDataProvider.AddPacketResultSuccess, recvDataProvider.addPacket(sendDataProvider.getPacket(mtu, i)));
+        }
+        Assert.assertFalse(recvDataProvider.isFailed());
+        Assert.assertTrue(recvDataProvider.isCompleted());
+        Assert.assertEquals(1, finishCount[0]);
+    }
+}
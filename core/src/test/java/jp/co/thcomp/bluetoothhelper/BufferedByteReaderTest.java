@@ -4,14 +4,19 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Random;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class BufferedByteReaderTest {
     private static final byte[][] sTestDelimiterArray = {
@@ -64,9 +69,6 @@ public class BufferedByteReaderTest {
     @Test
     public void testCase2() throws Exception {
         byte[][] testCaseLineArray = sTestCase2LineArray;
-        Field sStoredByteBufferMapField = BufferedByteReader.class.getDeclaredField("sStoredByteBufferMap");
-        sStoredByteBufferMapField.setAccessible(true);
-        HashMap<InputStream, byte[]> sStoredByteBufferMap = (HashMap<InputStream, byte[]>) sStoredByteBufferMapField.get(null);
 
         for (int i = 0, sizeI = sTestDelimiterArray.length; i < sizeI; i++) {
             ByteArrayOutputStream testDataStream = new ByteArrayOutputStream();
@@ -87,16 +89,13 @@ public class BufferedByteReaderTest {
             BufferedByteReader reader = new BufferedByteReader(inputStream);
             reader.close();
 
-            assertFalse(sStoredByteBufferMap.containsKey(inputStream));
+            assertFalse(BufferedByteReader.hasStoredByteBuffer(inputStream));
         }
     }
 
     @Test
     public void testCase3() throws Exception {
         byte[][] testCaseLineArray = sTestCase3LineArray;
-        Field sStoredByteBufferMapField = BufferedByteReader.class.getDeclaredField("sStoredByteBufferMap");
-        sStoredByteBufferMapField.setAccessible(true);
-        HashMap<InputStream, byte[]> sStoredByteBufferMap = (HashMap<InputStream, byte[]>) sStoredByteBufferMapField.get(null);
 
         for (int i = 0, sizeI = sTestDelimiterArray.length; i < sizeI; i++) {
             ByteArrayOutputStream testDataStream = new ByteArrayOutputStream();
@@ -116,7 +115,7 @@ public class BufferedByteReaderTest {
 
             BufferedByteReader.releaseStoredByteBuffer(inputStream);
 
-            assertFalse(sStoredByteBufferMap.containsKey(inputStream));
+            assertFalse(BufferedByteReader.hasStoredByteBuffer(inputStream));
         }
     }
 
@@ -143,10 +142,7 @@ public class BufferedByteReaderTest {
 
         BufferedByteReader.releaseAllStoredByteBuffer();
 
-        Field sStoredByteBufferMapField = BufferedByteReader.class.getDeclaredField("sStoredByteBufferMap");
-        sStoredByteBufferMapField.setAccessible(true);
-        HashMap<InputStream, byte[]> sStoredByteBufferMap = (HashMap<InputStream, byte[]>) sStoredByteBufferMapField.get(null);
-        assertTrue(sStoredByteBufferMap.size() == 0);
+        assertTrue(BufferedByteReader.getStoredByteBufferCount() == 0);
     }
 
     @Test
@@ -163,19 +159,20 @@ public class BufferedByteReaderTest {
             }
 
             byte[] data = testDataStream.toByteArray();
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(testDataStream.toByteArray());
-            BufferedByteReader reader = new BufferedByteReader(inputStream);
-            Method findDelimiterMethod = BufferedByteReader.class.getDeclaredMethod("findDelimiter", byte[].class, int.class, byte[].class);
-            findDelimiterMethod.setAccessible(true);
+            ByteRingBuffer ringBuffer = new ByteRingBuffer(data.length);
+            ringBuffer.write(data, 0, data.length);
 
             for (int j = 0, sizeJ = testCaseLineArray.length - 1; j < sizeJ; j++) {
-                int findDelimiter = (int) findDelimiterMethod.invoke(reader, data, data.length, sTestDelimiterArray[i]);
+                // 先頭から読み出した後は新たに生成して検索
+                DelimiterMatcher matcher = new DelimiterMatcher(sTestDelimiterArray[i]);
+                int findDelimiter = matcher.find(ringBuffer);
                 for (int k = 0, sizeK = sTestDelimiterArray[i].length; k < sizeK; k++) {
-                    assertTrue(data[findDelimiter + k] == sTestDelimiterArray[i][k]);
+                    assertTrue(ringBuffer.get(findDelimiter + k) == sTestDelimiterArray[i][k]);
                 }
 
-                data = Arrays.copyOfRange(data, findDelimiter + sTestDelimiterArray[i].length, data.length);
+                ringBuffer.skip(findDelimiter + sTestDelimiterArray[i].length);
             }
+            assertEquals(-1, new DelimiterMatcher(sTestDelimiterArray[i]).find(ringBuffer));
         }
     }
 
@@ -195,4 +192,280 @@ public class BufferedByteReaderTest {
             assertTrue(Arrays.equals(tempOutputstream.toByteArray(), testCaseLineArray[j]));
         }
     }
+
+    @Test
+    public void testCase7() throws Exception {
+        // readLineで読み過ぎたデータをread()で1バイトずつ取り出せること(0x80以上の値も含む)
+        byte[] tailData = new byte[256 * 16];
+        for (int i = 0; i < tailData.length; i++) {
+            tailData[i] = (byte) i;
+        }
+        ByteArrayOutputStream testDataStream = new ByteArrayOutputStream();
+        testDataStream.write(sTestCase1LineArray[0]);
+        testDataStream.write("\r\n".getBytes());
+        testDataStream.write(tailData);
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(testDataStream.toByteArray());
+
+        assertTrue(Arrays.equals(new BufferedByteReader(inputStream).readLine("\r\n".getBytes()), sTestCase1LineArray[0]));
+        for (int i = 0; i < tailData.length; i++) {
+            assertEquals(tailData[i] & 0xFF, new BufferedByteReader(inputStream).read());
+        }
+        assertEquals(-1, new BufferedByteReader(inputStream).read());
+
+        BufferedByteReader.releaseStoredByteBuffer(inputStream);
+    }
+
+    @Test
+    public void testCase8() throws Exception {
+        // ストリーム毎に読み過ぎたデータが独立して保持され、並列に読み込めること
+        final int streamCount = 8;
+        final int lineCount = 200;
+        final byte[] delimiter = "\r\n".getBytes();
+        final ByteArrayInputStream[] inputStreams = new ByteArrayInputStream[streamCount];
+
+        for (int i = 0; i < streamCount; i++) {
+            ByteArrayOutputStream testDataStream = new ByteArrayOutputStream();
+            for (int j = 0; j < lineCount; j++) {
+                testDataStream.write(("stream" + i + " line" + j).getBytes());
+                testDataStream.write(delimiter);
+            }
+            inputStreams[i] = new ByteArrayInputStream(testDataStream.toByteArray());
+        }
+
+        final boolean[] results = new boolean[streamCount];
+        Thread[] threads = new Thread[streamCount];
+        for (int i = 0; i < streamCount; i++) {
+            final int streamIndex = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean result = true;
+                    try {
+                        for (int j = 0; j < lineCount; j++) {
+                            byte[] line = new BufferedByteReader(inputStreams[streamIndex]).readLine(delimiter);
+                            result &= Arrays.equals(("stream" + streamIndex + " line" + j).getBytes(), line);
+                        }
+                        result &= new BufferedByteReader(inputStreams[streamIndex]).readLine(delimiter) == null;
+                        new BufferedByteReader(inputStreams[streamIndex]).close();
+                    } catch (Exception e) {
+                        result = false;
+                    }
+                    results[streamIndex] = result;
+                }
+            });
+            threads[i].start();
+        }
+
+        for (int i = 0; i < streamCount; i++) {
+            threads[i].join();
+            assertTrue(results[i]);
+        }
+    }
+
+    @Test
+    public void testCase9() throws Exception {
+        // 接頭辞と接尾辞が重なる区切り文字(KMPの失敗関数による後戻り)と、読み込み単位を跨ぐ区切り文字
+        byte[] delimiter = "abab#".getBytes();
+        byte[][] lines = {
+                "aabaabab".getBytes(),
+                "ababab".getBytes(),
+                "".getBytes(),
+                "abab".getBytes(),
+        };
+        ByteArrayOutputStream testDataStream = new ByteArrayOutputStream();
+        for (byte[] line : lines) {
+            testDataStream.write(line);
+            testDataStream.write(delimiter);
+        }
+        ByteArrayInputStream inputStream = new OneByteInputStream(testDataStream.toByteArray());
+
+        for (byte[] line : lines) {
+            assertTrue(Arrays.equals(line, new BufferedByteReader(inputStream).readLine(delimiter)));
+        }
+        assertTrue(new BufferedByteReader(inputStream).readLine(delimiter) == null);
+        BufferedByteReader.releaseStoredByteBuffer(inputStream);
+    }
+
+    @Test
+    public void testCase10() throws Exception {
+        // 1MBの行
+        byte[] line = new byte[1024 * 1024];
+        Arrays.fill(line, (byte) 'a');
+        line[line.length - 1] = '\r';
+        ByteArrayOutputStream testDataStream = new ByteArrayOutputStream();
+        testDataStream.write(line);
+        testDataStream.write("\r\n".getBytes());
+        testDataStream.write(sTestCase1LineArray[0]);
+        testDataStream.write("\r\n".getBytes());
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(testDataStream.toByteArray());
+
+        assertTrue(Arrays.equals(line, new BufferedByteReader(inputStream).readLine("\r\n".getBytes())));
+        assertTrue(Arrays.equals(sTestCase1LineArray[0], new BufferedByteReader(inputStream).readLine("\r\n".getBytes())));
+        new BufferedByteReader(inputStream).close();
+    }
+
+    @Test
+    public void testCase11() throws Exception {
+        // readLineで読み過ぎたデータをread(byte[], int, int)/skip/availableで取り出し、その後ストリームから直接読み込めること
+        byte[] tailData = new byte[64 * 1024];
+        new Random(11).nextBytes(tailData);
+        ByteArrayOutputStream testDataStream = new ByteArrayOutputStream();
+        testDataStream.write(sTestCase1LineArray[0]);
+        testDataStream.write("\n".getBytes());
+        DataOutputStream dataOutputStream = new DataOutputStream(testDataStream);
+        dataOutputStream.writeInt(tailData.length);
+        dataOutputStream.write(tailData);
+        dataOutputStream.writeLong(0x0123456789ABCDEFL);
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(testDataStream.toByteArray());
+
+        BufferedByteReader reader = new BufferedByteReader(inputStream);
+        assertTrue(Arrays.equals(sTestCase1LineArray[0], reader.readLine("\n".getBytes())));
+        assertEquals(4 + tailData.length + 8, reader.available());
+
+        DataInputStream dataInputStream = new DataInputStream(new BufferedByteReader(inputStream));
+        assertEquals(tailData.length, dataInputStream.readInt());
+        byte[] readData = new byte[tailData.length];
+        assertEquals(16, dataInputStream.skipBytes(16));
+        dataInputStream.readFully(readData, 16, readData.length - 16);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(tailData, 16, tailData.length), Arrays.copyOfRange(readData, 16, readData.length)));
+        assertEquals(0x0123456789ABCDEFL, dataInputStream.readLong());
+        assertEquals(0, reader.available());
+        assertEquals(0, reader.read(readData, 0, 0));
+        assertEquals(-1, reader.read(readData, 0, readData.length));
+
+        reader.close();
+    }
+
+    @Test
+    public void testCase12() throws Exception {
+        // ストリーム毎の上限: 区切り文字が見つからないまま上限を超えた場合はIOExceptionとなり、保持していたデータは破棄される
+        byte[] line = new byte[10000];
+        Arrays.fill(line, (byte) 'a');
+        ByteArrayOutputStream testDataStream = new ByteArrayOutputStream();
+        testDataStream.write(line);
+        testDataStream.write("\n".getBytes());
+        testDataStream.write(sTestCase1LineArray[0]);
+        testDataStream.write("\n".getBytes());
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(testDataStream.toByteArray());
+
+        try {
+            BufferedByteReader.setMaxStoredByteBufferSize(4096);
+            try {
+                new BufferedByteReader(inputStream).readLine("\n".getBytes());
+                fail();
+            } catch (IOException e) {
+            }
+            assertEquals(0, new BufferedByteReader(inputStream).available() - (testDataStream.size() - 4096));
+        } finally {
+            BufferedByteReader.setMaxStoredByteBufferSize(BufferedByteReader.DefaultMaxStoredByteBufferSize);
+        }
+
+        new BufferedByteReader(inputStream).close();
+    }
+
+    @Test
+    public void testCase13() throws Exception {
+        // 全体の上限: 上限を超えてバッファを拡張する場合はIOExceptionとなり、保持しているデータは残る
+        BufferedByteReader.releaseAllStoredByteBuffer();
+        long baseSize = BufferedByteReader.getTotalStoredByteBufferSize();
+        byte[] line = new byte[100000];
+        Arrays.fill(line, (byte) 'a');
+        ByteArrayOutputStream testDataStream = new ByteArrayOutputStream();
+        testDataStream.write(line);
+        testDataStream.write("\n".getBytes());
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(testDataStream.toByteArray());
+
+        try {
+            BufferedByteReader.setMaxTotalStoredByteBufferSize(baseSize + 64 * 1024);
+            try {
+                new BufferedByteReader(inputStream).readLine("\n".getBytes());
+                fail();
+            } catch (IOException e) {
+            }
+            assertTrue(BufferedByteReader.getTotalStoredByteBufferSize() <= baseSize + 64 * 1024);
+
+            BufferedByteReader.setMaxTotalStoredByteBufferSize(BufferedByteReader.DefaultMaxTotalStoredByteBufferSize);
+            byte[] data = new BufferedByteReader(inputStream).readLine("\n".getBytes());
+            assertTrue(Arrays.equals(line, data));
+        } finally {
+            BufferedByteReader.setMaxTotalStoredByteBufferSize(BufferedByteReader.DefaultMaxTotalStoredByteBufferSize);
+        }
+
+        // 読み出し後はバッファが縮小される
+        BufferedByteReader reader = new BufferedByteReader(inputStream);
+        assertTrue(BufferedByteReader.getTotalStoredByteBufferSize() < baseSize + 64 * 1024);
+        reader.close();
+        assertEquals(baseSize, BufferedByteReader.getTotalStoredByteBufferSize());
+    }
+
+    @Test
+    public void testCase14() throws Exception {
+        // 読み込みでIOExceptionが発生したストリーム、参照されなくなったストリームのデータは解放される
+        BufferedByteReader.releaseAllStoredByteBuffer();
+
+        InputStream brokenStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("closed");
+            }
+        };
+        try {
+            new BufferedByteReader(brokenStream).readLine("\n".getBytes());
+            fail();
+        } catch (IOException e) {
+        }
+        assertFalse(BufferedByteReader.hasStoredByteBuffer(brokenStream));
+
+        for (int i = 0; i < 100; i++) {
+            ByteArrayInputStream inputStream = new ByteArrayInputStream("line\nleftover".getBytes());
+            new BufferedByteReader(inputStream).readLine("\n".getBytes());
+        }
+        for (int i = 0; i < 100 && BufferedByteReader.getStoredByteBufferCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, BufferedByteReader.getStoredByteBufferCount());
+        assertEquals(0, BufferedByteReader.getTotalStoredByteBufferSize());
+    }
+
+    @Test(timeout = 10000)
+    public void testCase15() throws Exception {
+        // 読み込み待ちのストリームに対する解放要求がブロックしないこと
+        final PipedOutputStream outputStream = new PipedOutputStream();
+        final PipedInputStream inputStream = new PipedInputStream(outputStream);
+        final byte[][] result = new byte[1][];
+        Thread readThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = new BufferedByteReader(inputStream).readLine("\n".getBytes());
+                } catch (IOException e) {
+                }
+            }
+        });
+        readThread.start();
+        outputStream.write("partial".getBytes());
+        outputStream.flush();
+        Thread.sleep(100);
+
+        BufferedByteReader.releaseStoredByteBuffer(inputStream);
+        assertFalse(BufferedByteReader.hasStoredByteBuffer(inputStream));
+
+        outputStream.write(" line\n".getBytes());
+        outputStream.close();
+        readThread.join();
+        assertTrue(Arrays.equals("partial line".getBytes(), result[0]));
+        assertFalse(BufferedByteReader.hasStoredByteBuffer(inputStream));
+    }
+
+    private static class OneByteInputStream extends ByteArrayInputStream {
+        public OneByteInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
 }
@@ -0,0 +1,72 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ByteArrayPoolTest {
+    @Test
+    public void test1() {
+        // サイズクラス
+        assertEquals(ByteArrayPool.MinSizeClass, ByteArrayPool.getSizeClass(0));
+        assertEquals(ByteArrayPool.MinSizeClass, ByteArrayPool.getSizeClass(ByteArrayPool.MinSizeClass));
+        assertEquals(ByteArrayPool.MinSizeClass * 2, ByteArrayPool.getSizeClass(ByteArrayPool.MinSizeClass + 1));
+        assertEquals(1024, ByteArrayPool.getSizeClass(1000));
+        assertEquals(ByteArrayPool.MaxSizeClass, ByteArrayPool.getSizeClass(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void test2() {
+        // 返却した配列が同じサイズクラスで再利用されること
+        ByteArrayPool pool = new ByteArrayPool(2);
+        byte[] array1 = pool.acquire(1000);
+        byte[] array2 = pool.acquire(1000);
+        byte[] array3 = pool.acquire(1000);
+        assertEquals(1024, array1.length);
+        assertNotSame(array1, array2);
+
+        pool.release(array1);
+        pool.release(array2);
+        pool.release(array3);
+        assertEquals(2 * 1024, pool.getPooledSize());
+
+        assertSame(array2, pool.acquire(600));
+        assertSame(array1, pool.acquire(1024));
+        assertEquals(512, pool.acquire(512).length);
+        assertEquals(0, pool.getPooledSize());
+    }
+
+    @Test
+    public void test3() {
+        // サイズクラスに一致しない配列は破棄
+        ByteArrayPool pool = new ByteArrayPool(4);
+        pool.release(new byte[1000]);
+        pool.release(new byte[ByteArrayPool.MinSizeClass / 2]);
+        pool.release(new byte[ByteArrayPool.MaxSizeClass * 2]);
+        pool.release(null);
+        assertEquals(0, pool.getPooledSize());
+
+        pool.release(new byte[ByteArrayPool.MaxSizeClass]);
+        assertEquals(ByteArrayPool.MaxSizeClass, pool.getPooledSize());
+        pool.clear();
+        assertEquals(0, pool.getPooledSize());
+    }
+
+    @Test
+    public void test4() {
+        // MaxSizeClassを超えるサイズは要求サイズ以上の配列を返し、返却してもプールしない
+        ByteArrayPool pool = new ByteArrayPool(4);
+        pool.release(new byte[ByteArrayPool.MaxSizeClass]);
+
+        byte[] array = pool.acquire(ByteArrayPool.MaxSizeClass + 1);
+        assertEquals(ByteArrayPool.MaxSizeClass + 1, array.length);
+        assertEquals(ByteArrayPool.MaxSizeClass, pool.getPooledSize());
+
+        pool.release(array);
+        assertEquals(ByteArrayPool.MaxSizeClass, pool.getPooledSize());
+        assertEquals(ByteArrayPool.MaxSizeClass, pool.acquire(ByteArrayPool.MaxSizeClass).length);
+        assertEquals(0, pool.getPooledSize());
+    }
+}
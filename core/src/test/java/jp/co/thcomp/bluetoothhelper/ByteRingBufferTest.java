@@ -0,0 +1,68 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ByteRingBufferTest {
+    @Test
+    public void test1() {
+        // 先頭/末尾が折り返す状態での書き込み・読み出し・拡張
+        ByteRingBuffer ringBuffer = new ByteRingBuffer(8);
+        Random random = new Random(1);
+        byte[] expected = new byte[4096];
+        random.nextBytes(expected);
+        int writePosition = 0;
+        int readPosition = 0;
+
+        while (readPosition < expected.length) {
+            int writeSize = Math.min(random.nextInt(24), expected.length - writePosition);
+            ringBuffer.write(expected, writePosition, writeSize);
+            writePosition += writeSize;
+
+            int readSize = random.nextInt(20);
+            if (readSize % 3 == 0 && !ringBuffer.isEmpty()) {
+                assertEquals(expected[readPosition] & 0xFF, ringBuffer.read());
+                readPosition++;
+            } else {
+                byte[] readData = new byte[readSize];
+                int actualSize = ringBuffer.read(readData, 0, readSize);
+                assertEquals(Math.min(readSize, writePosition - readPosition), actualSize);
+                assertTrue(Arrays.equals(Arrays.copyOfRange(expected, readPosition, readPosition + actualSize), Arrays.copyOf(readData, actualSize)));
+                readPosition += actualSize;
+            }
+
+            assertEquals(writePosition - readPosition, ringBuffer.size());
+            for (int i = 0; i < ringBuffer.size(); i++) {
+                assertEquals(expected[readPosition + i], ringBuffer.get(i));
+            }
+        }
+
+        assertEquals(-1, ringBuffer.read());
+    }
+
+    @Test
+    public void test2() throws Exception {
+        // ストリームからの直接読み込み
+        byte[] expected = new byte[1000];
+        new Random(2).nextBytes(expected);
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(expected);
+        ByteRingBuffer ringBuffer = new ByteRingBuffer(16);
+
+        ringBuffer.write(expected, 0, 10);
+        ringBuffer.skip(10);
+        ringBuffer.write(expected, 0, 10);
+        while (ringBuffer.fill(inputStream, 64) > 0) {
+        }
+
+        byte[] readData = new byte[ringBuffer.size()];
+        ringBuffer.read(readData, 0, readData.length);
+        assertTrue(Arrays.equals(Arrays.copyOf(expected, 10), Arrays.copyOf(readData, 10)));
+        assertTrue(Arrays.equals(expected, Arrays.copyOfRange(readData, 10, readData.length)));
+    }
+}
@@ -0,0 +1,63 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExponentialBackoffTest {
+    @Test
+    public void test1() {
+        // ジッタなしの場合は上限で頭打ちになる指数的な間隔
+        ExponentialBackoff backoff = new ExponentialBackoff(100, 1000, 2.0, 0);
+        Random random = new Random(1);
+
+        assertEquals(100, backoff.getDelayMS(0, random));
+        assertEquals(200, backoff.getDelayMS(1, random));
+        assertEquals(800, backoff.getDelayMS(3, random));
+        assertEquals(1000, backoff.getDelayMS(4, random));
+        assertEquals(1000, backoff.getDelayMS(Integer.MAX_VALUE, random));
+    }
+
+    @Test
+    public void test2() {
+        // ジッタは上限から最大jitterの割合だけ短縮し、値が分散すること
+        ExponentialBackoff backoff = new ExponentialBackoff(100, 10000, 2.0, 0.5);
+        Random random = new Random(2);
+        long minDelayMS = Long.MAX_VALUE;
+        long maxDelayMS = Long.MIN_VALUE;
+
+        for (int i = 0; i < 1000; i++) {
+            long delayMS = backoff.getDelayMS(3, random);
+            assertTrue(delayMS >= 400 && delayMS <= 800);
+            minDelayMS = Math.min(minDelayMS, delayMS);
+            maxDelayMS = Math.max(maxDelayMS, delayMS);
+        }
+        assertTrue(maxDelayMS - minDelayMS > 300);
+    }
+
+    @Test
+    public void test3() {
+        // 不正な設定
+        try {
+            new ExponentialBackoff(100, 50, 2.0, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            new ExponentialBackoff(100, 1000, 0.5, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            new ExponentialBackoff(100, 1000, 2.0, 1.5);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package jp.co.thcomp.bluetoothhelper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LengthPrefixedFrameTest {
+    private static final int[] TestHeaderTypes = {LengthPrefixedFrame.HeaderTypeVarint, LengthPrefixedFrame.HeaderTypeFixed};
+    private static final int[] TestFrameSizes = {0, 1, 127, 128, 16383, 16384, 100000};
+
+    @Test
+    public void test1() throws Exception {
+        // 区切り文字を含むバイナリデータを含めて、書き込んだフレームをそのまま読み込めること
+        Random random = new Random(1);
+
+        for (int headerType : TestHeaderTypes) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[][] frames = new byte[TestFrameSizes.length][];
+
+            for (int i = 0; i < TestFrameSizes.length; i++) {
+                frames[i] = new byte[TestFrameSizes[i]];
+                random.nextBytes(frames[i]);
+                Arrays.fill(frames[i], 0, Math.min(2, frames[i].length), (byte) '\n');
+                LengthPrefixedFrame.writeFrame(outputStream, headerType, frames[i], 0, frames[i].length);
+            }
+
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+            for (int i = 0; i < TestFrameSizes.length; i++) {
+                assertTrue(Arrays.equals(frames[i], LengthPrefixedFrame.readFrame(inputStream, headerType, LengthPrefixedFrame.DefaultMaxFrameSize)));
+            }
+            assertTrue(LengthPrefixedFrame.readFrame(inputStream, headerType, LengthPrefixedFrame.DefaultMaxFrameSize) == null);
+        }
+    }
+
+    @Test
+    public void test2() throws Exception {
+        // ヘッダサイズ
+        assertEquals(1, LengthPrefixedFrame.getHeaderSize(LengthPrefixedFrame.HeaderTypeVarint, 127));
+        assertEquals(2, LengthPrefixedFrame.getHeaderSize(LengthPrefixedFrame.HeaderTypeVarint, 128));
+        assertEquals(5, LengthPrefixedFrame.getHeaderSize(LengthPrefixedFrame.HeaderTypeVarint, Integer.MAX_VALUE));
+        assertEquals(4, LengthPrefixedFrame.getHeaderSize(LengthPrefixedFrame.HeaderTypeFixed, 0));
+        assertTrue(Arrays.equals(new byte[]{0x00, 0x01, 0x02, 0x03}, LengthPrefixedFrame.createHeader(LengthPrefixedFrame.HeaderTypeFixed, 0x010203)));
+        assertTrue(Arrays.equals(new byte[]{(byte) 0x80, 0x01}, LengthPrefixedFrame.createHeader(LengthPrefixedFrame.HeaderTypeVarint, 128)));
+    }
+
+    @Test
+    public void test3() throws Exception {
+        // 最大サイズ超過、不正なヘッダ、フレーム途中での終端
+        byte[] header = LengthPrefixedFrame.createHeader(LengthPrefixedFrame.HeaderTypeFixed, 1024);
+        try {
+            LengthPrefixedFrame.readFrame(new ByteArrayInputStream(header), LengthPrefixedFrame.HeaderTypeFixed, 1023);
+            fail();
+        } catch (EOFException e) {
+            fail();
+        } catch (IOException e) {
+        }
+
+        try {
+            LengthPrefixedFrame.readFrame(new ByteArrayInputStream(header), LengthPrefixedFrame.HeaderTypeFixed, 1024);
+            fail();
+        } catch (EOFException e) {
+        }
+
+        try {
+            LengthPrefixedFrame.readFrame(new ByteArrayInputStream(new byte[]{0x00, 0x00}), LengthPrefixedFrame.HeaderTypeFixed, 1024);
+            fail();
+        } catch (EOFException e) {
+        }
+
+        try {
+            byte[] malformedHeader = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+            LengthPrefixedFrame.readFrame(new ByteArrayInputStream(malformedHeader), LengthPrefixedFrame.HeaderTypeVarint, Integer.MAX_VALUE);
+            fail();
+        } catch (EOFException e) {
+            fail();
+        } catch (IOException e) {
+        }
+
+        try {
+            byte[] negativeHeader = {(byte) 0x80, 0x00, 0x00, 0x00};
+            LengthPrefixedFrame.readFrame(new ByteArrayInputStream(negativeHeader), LengthPrefixedFrame.HeaderTypeFixed, Integer.MAX_VALUE);
+            fail();
+        } catch (EOFException e) {
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void test4() throws Exception {
+        // readLineとreadFrameの混在(readLineで読み過ぎたデータからフレームを読み込む)
+        byte[] frame = new byte[10000];
+        new Random(4).nextBytes(frame);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outputStream.write("HELLO\r\n".getBytes());
+        LengthPrefixedFrame.writeFrame(outputStream, LengthPrefixedFrame.HeaderTypeVarint, frame, 0, frame.length);
+        LengthPrefixedFrame.writeFrame(outputStream, LengthPrefixedFrame.HeaderTypeVarint, frame, 10, 20);
+        outputStream.write("BYE\r\n".getBytes());
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+
+        assertTrue(Arrays.equals("HELLO".getBytes(), new BufferedByteReader(inputStream).readLine("\r\n".getBytes())));
+        assertTrue(Arrays.equals(frame, new BufferedByteReader(inputStream).readFrame(LengthPrefixedFrame.HeaderTypeVarint, LengthPrefixedFrame.DefaultMaxFrameSize)));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(frame, 10, 30), new BufferedByteReader(inputStream).readFrame(LengthPrefixedFrame.HeaderTypeVarint, LengthPrefixedFrame.DefaultMaxFrameSize)));
+        assertTrue(Arrays.equals("BYE".getBytes(), new BufferedByteReader(inputStream).readLine("\r\n".getBytes())));
+        new BufferedByteReader(inputStream).close();
+    }
+}